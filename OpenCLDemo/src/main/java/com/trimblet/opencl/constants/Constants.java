@@ -6,5 +6,18 @@ public final class Constants {
 
 	public static final String PROGRAM_FILE = "/reduction.cl";
 	public static final String PROGRAM_NAME = "reduce";
+	public static final String DOT_KERNEL_NAME = "reduceDot";
+	public static final String SQUARED_DISTANCE_KERNEL_NAME = "reduceSquaredDistance";
+	public static final String DOT_BATCHED_KERNEL_NAME = "reduceDotBatched";
+	public static final String SQUARED_DISTANCE_BATCHED_KERNEL_NAME = "reduceSquaredDistanceBatched";
+	public static final String COVARIANCE_KERNEL_NAME = "reduceCovariance";
+	public static final String COMBINE_COVARIANCE_KERNEL_NAME = "combineCovariance";
+	public static final String SEGMENTED_KERNEL_NAME = "reduceSegmented";
+
+	public static final String HISTOGRAM_PROGRAM_FILE = "/histogram.cl";
+	public static final String HISTOGRAM_PROGRAM_NAME = "histogram";
+
+	public static final String TOPK_PROGRAM_FILE = "/topk.cl";
+	public static final String TOPK_PROGRAM_NAME = "topK";
 
 }
@@ -0,0 +1,232 @@
+package com.trimblet.opencl.demo;
+
+import static org.jocl.CL.CL_MEM_COPY_HOST_PTR;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clEnqueueNDRangeKernel;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clSetKernelArg;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.arrays.OpenCLArray;
+import com.trimblet.opencl.obj.arrays.OpenCLFloatArray;
+import com.trimblet.opencl.obj.arrays.OpenCLIntArray;
+import com.trimblet.opencl.utilities.Utilities;
+
+/**
+ * Histogram of float arrays computed on the GPU. Expects an
+ * {@link OpenCLContext} built from {@link Constants#HISTOGRAM_PROGRAM_FILE}
+ * and {@link Constants#HISTOGRAM_PROGRAM_NAME}.
+ *
+ * @author trimblet
+ */
+public final class JoclHistogram {
+
+	private static final Logger LOG = LogManager.getLogger();
+
+	private static final int MAX_LOCAL_WORK_SIZE = 256;
+	private static final int NUM_WORK_GROUPS = 64;
+	private static final int WORK_DIMENSIONS = 1;
+
+
+	private JoclHistogram() {}
+
+
+	/**
+	 * The entry point of this sample
+	 *
+	 * @param args Not used
+	 * @throws IOException
+	 */
+	public static void main(String args[]) throws Exception {
+
+		try (OpenCLContext context = new OpenCLContext(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME)) {
+
+			// Create input array that will be bucketed
+			int n = 1_000;
+			int numBins = 10;
+			float[] inputArray = Utilities.newTestArray(n);
+
+			Long start = System.nanoTime();
+			int[] resultGPU = histogram(context, inputArray, 0.0f, n, numBins);
+			Long end = System.nanoTime();
+			System.out.println(String.format("GPU: histogram(%s, %s bins) = %s (%sms)",
+					n, numBins, Arrays.toString(resultGPU), ((end - start)/1000)));
+		}
+	}
+
+
+	/**
+	 * Bucket the given input array into <code>numBins</code> bins of equal
+	 * width covering <code>[min, max]</code>.
+	 *
+	 * @param context the {@link OpenCLContext} object wrapping this action
+	 * @param inputArray The array to bucket
+	 * @param min The lower edge of the first bin
+	 * @param max The upper edge of the last bin, which is inclusive
+	 * @param numBins The number of bins
+	 * @return The number of elements in each bin
+	 * @see #histogram(OpenCLContext, float[], float[])
+	 */
+	public static int[] histogram(OpenCLContext context, float[] inputArray, float min, float max, int numBins) {
+		if (numBins < 1 || !(min < max)) {
+			throw new IllegalArgumentException(
+					String.format("JoclHistogram#histogram() invalid bins: %s in [%s, %s]", numBins, min, max));
+		}
+		return histogram(context, inputArray, new float[]{min, max}, numBins, true);
+	}
+
+
+	/**
+	 * Bucket the given input array into the bins delimited by the given
+	 * edges. Bin <code>i</code> counts the elements in
+	 * <code>[edges[i], edges[i + 1])</code>, except for the last bin which
+	 * also counts elements equal to its upper edge. Elements outside of the
+	 * edges are not counted.<br/>
+	 * <br/>
+	 * Each work group builds a private histogram in local memory, which is
+	 * merged into the global result once the group is done. When the bins
+	 * don't fit into local memory, the histogram is built in several passes,
+	 * each covering as many bins as fit.
+	 *
+	 * @param context the {@link OpenCLContext} object wrapping this action
+	 * @param inputArray The array to bucket
+	 * @param edges The strictly increasing bin edges, one more than the
+	 * number of bins
+	 * @return The number of elements in each bin
+	 */
+	public static int[] histogram(OpenCLContext context, float[] inputArray, float[] edges) {
+		if (edges == null) {
+			throw new NullPointerException("JoclHistogram#histogram() passed null parameter");
+		}
+		if (edges.length < 2) {
+			throw new IllegalArgumentException("JoclHistogram#histogram() needs at least two edges");
+		}
+		for (int i = 1; i < edges.length; i++) {
+			if (!(edges[i - 1] < edges[i])) {
+				throw new IllegalArgumentException("JoclHistogram#histogram() edges must be strictly increasing");
+			}
+		}
+		return histogram(context, inputArray, edges, edges.length - 1, false);
+	}
+
+
+	private static int[] histogram(OpenCLContext context, float[] inputArray, float[] edges, int numBins, boolean uniform) {
+		int[] outputArray = new int[numBins];
+		if (inputArray.length == 0) {
+			return outputArray;
+		}
+
+		int localWorkSize = getLocalWorkSize(context);
+		int maxChunkBins = getMaxLocalBins(context);
+		if (maxChunkBins < numBins) {
+			LOG.debug(String.format("%s bins exceed local memory, using sub-histograms of %s bins", numBins, maxChunkBins));
+		}
+
+		// Allocate the memory objects for the input- and output data
+		try (OpenCLArray inputMem = new OpenCLFloatArray(inputArray, Sizeof.cl_float * inputArray.length, context.getContext());
+				OpenCLArray edgesMem = new OpenCLFloatArray(edges, Sizeof.cl_float * edges.length, context.getContext());
+				OpenCLArray outputMem = new OpenCLIntArray(outputArray, Sizeof.cl_int * numBins,
+						CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext())) {
+
+			// One pass per sub-histogram; a single pass when all bins fit
+			for (int binOffset = 0; binOffset < numBins; binOffset += maxChunkBins) {
+				int chunkBins = Math.min(maxChunkBins, numBins - binOffset);
+				histogramIntoArray(context, inputMem, edgesMem, numBins, uniform,
+						binOffset, chunkBins, outputMem, localWorkSize);
+			}
+
+			// Read the output data
+			clEnqueueReadBuffer(context.getQueue(), outputMem.get(), CL_TRUE, 0,
+					numBins * Sizeof.cl_int, outputMem.getPointer(),
+					0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return outputArray;
+	}
+
+
+	/**
+	 * Count the elements of the input memory falling into the bins
+	 * <code>[binOffset, binOffset + chunkBins)</code> and add them to the
+	 * given output memory.
+	 *
+	 * @param context the {@link OpenCLContext} object wrapping this action
+	 * @param inputMem The input memory containing the float values to bucket
+	 * @param edgesMem The bin edges, or the minimum and maximum if uniform
+	 * @param numBins The total number of bins
+	 * @param uniform Whether the bins all have the same width
+	 * @param binOffset The first bin counted by this pass
+	 * @param chunkBins The number of bins counted by this pass
+	 * @param outputMem The output memory that accumulates the counts
+	 * @param localWorkSize The local work size, that is, the number of
+	 * work items in each work group
+	 */
+	private static void histogramIntoArray(
+			OpenCLContext context,
+			OpenCLArray inputMem,
+			OpenCLArray edgesMem,
+			int numBins,
+			boolean uniform,
+			int binOffset,
+			int chunkBins,
+			OpenCLArray outputMem,
+			int localWorkSize) {
+		// Set the arguments for the kernel
+		int a = 0;
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(inputMem.get()));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{inputMem.size()}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(edgesMem.get()));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{numBins}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{uniform ? 1 : 0}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{binOffset}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{chunkBins}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int * chunkBins, null);
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(outputMem.get()));
+
+		// Don't launch more groups than needed for small inputs
+		int numWorkGroups = Math.max(1, Math.min(NUM_WORK_GROUPS, (inputMem.size() + localWorkSize - 1) / localWorkSize));
+		long globalWorkSize = numWorkGroups * localWorkSize;
+
+		// Execute the kernel
+		clEnqueueNDRangeKernel(context.getQueue(), context.getKernel(), WORK_DIMENSIONS, null,
+				new long[]{globalWorkSize}, // Global workspace
+				new long[]{localWorkSize}, // Local workspace
+
+				// Not using event infrastructure (for now),
+				// so these should be 0, null, null
+				0, null, null);
+	}
+
+
+	/**
+	 * @return the number of work items per group, limited by the kernel
+	 */
+	private static int getLocalWorkSize(OpenCLContext context) {
+		long kernelWorkGroupSize = context.getWorkGroupSize(context.getKernel());
+		return (int) Math.max(1, Math.min(MAX_LOCAL_WORK_SIZE, kernelWorkGroupSize));
+	}
+
+
+	/**
+	 * @return the number of int bins that fit into the local memory left
+	 * over by the kernel on the context's device, that is, the most bins
+	 * counted by one pass
+	 */
+	static int getMaxLocalBins(OpenCLContext context) {
+		long available = context.getAvailableLocalMemSize(context.getKernel());
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, available / Sizeof.cl_int));
+	}
+
+}
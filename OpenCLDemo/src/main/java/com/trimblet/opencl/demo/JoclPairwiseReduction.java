@@ -0,0 +1,432 @@
+package com.trimblet.opencl.demo;
+
+import static org.jocl.CL.CL_FALSE;
+import static org.jocl.CL.CL_MEM_COPY_HOST_PTR;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clEnqueueNDRangeKernel;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clSetKernelArg;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_kernel;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.arrays.OpenCLArray;
+import com.trimblet.opencl.obj.arrays.OpenCLFloatArray;
+import com.trimblet.opencl.obj.arrays.OpenCLIntArray;
+import com.trimblet.opencl.utilities.Utilities;
+
+/**
+ * Reductions over two float arrays of the same length, computed without
+ * materialising an intermediate array. Expects an {@link OpenCLContext}
+ * built from {@link Constants#PROGRAM_FILE} and {@link Constants#PROGRAM_NAME},
+ * the remaining kernels are taken from the same program.
+ *
+ * @author trimblet
+ */
+public final class JoclPairwiseReduction {
+
+	private static final Logger LOG = LogManager.getLogger();
+
+	/** Must be a power of two */
+	private static final int MAX_LOCAL_WORK_SIZE = 256;
+	private static final int NUM_WORK_GROUPS = 64;
+	private static final int WORK_DIMENSIONS = 1;
+	/** Number of floats in the partial results of the covariance kernels, besides the count */
+	private static final int MOMENTS = 5;
+
+
+	private JoclPairwiseReduction() {}
+
+
+	/**
+	 * The entry point of this sample
+	 *
+	 * @param args Not used
+	 * @throws IOException
+	 */
+	public static void main(String args[]) throws Exception {
+
+		try (OpenCLContext context = new OpenCLContext(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+
+			int n = 1_000;
+			float[] a = Utilities.newTestArray(n);
+			float[] b = Utilities.newTestArray(n);
+
+			Long start = System.nanoTime();
+			float dot = dot(context, a, b);
+			Long end1 = System.nanoTime();
+			Covariance covariance = covariance(context, a, b);
+			Long end2 = System.nanoTime();
+			System.out.println(String.format("GPU: dot(%s) = %s (%sms)", n, dot, ((end1 - start)/1000)));
+			System.out.println(String.format("GPU: cov(%s) = %s (%sms)", n, covariance, ((end2 - end1)/1000)));
+		}
+	}
+
+
+	/**
+	 * The result of {@link JoclPairwiseReduction#covariance(OpenCLContext, float[], float[])}
+	 */
+	public static final class Covariance {
+
+		private final long count;
+		private final float meanA;
+		private final float meanB;
+		private final float comoment;
+		private final float m2A;
+		private final float m2B;
+
+		private Covariance(int count, float[] moments) {
+			this.count = Integer.toUnsignedLong(count);
+			this.meanA = moments[0];
+			this.meanB = moments[1];
+			this.comoment = moments[2];
+			this.m2A = moments[3];
+			this.m2B = moments[4];
+		}
+
+		public final long getCount() {
+			return this.count;
+		}
+
+		public final float getMeanA() {
+			return this.meanA;
+		}
+
+		public final float getMeanB() {
+			return this.meanB;
+		}
+
+		/**
+		 * @return the population covariance
+		 */
+		public final float getCovariance() {
+			return this.comoment / this.count;
+		}
+
+		/**
+		 * @return the sample covariance, with Bessel's correction
+		 */
+		public final float getSampleCovariance() {
+			return this.comoment / (this.count - 1);
+		}
+
+		/**
+		 * @return Pearson's correlation coefficient
+		 */
+		public final float getCorrelation() {
+			return (float) (this.comoment / Math.sqrt((double) this.m2A * this.m2B));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Covariance[count=%s, covariance=%s, correlation=%s]",
+					this.count, this.getCovariance(), this.getCorrelation());
+		}
+	}
+
+
+	/**
+	 * @return The dot product of the two arrays
+	 */
+	public static float dot(OpenCLContext context, float[] a, float[] b) {
+		return withBuffers(context, a, b, 0.0f, (aMem, bMem) -> dot(context, aMem, bMem));
+	}
+
+
+	/**
+	 * @return The dot product of the two buffers
+	 */
+	public static float dot(OpenCLContext context, OpenCLFloatArray a, OpenCLFloatArray b) {
+		return reduceSum(context, Constants.DOT_KERNEL_NAME, a, b);
+	}
+
+
+	/**
+	 * @return The sum of squared differences, i.e. the squared euclidean
+	 * distance, of the two arrays
+	 */
+	public static float squaredDistance(OpenCLContext context, float[] a, float[] b) {
+		return withBuffers(context, a, b, 0.0f, (aMem, bMem) -> squaredDistance(context, aMem, bMem));
+	}
+
+
+	/**
+	 * @return The sum of squared differences of the two buffers
+	 */
+	public static float squaredDistance(OpenCLContext context, OpenCLFloatArray a, OpenCLFloatArray b) {
+		return reduceSum(context, Constants.SQUARED_DISTANCE_KERNEL_NAME, a, b);
+	}
+
+
+	/**
+	 * @return The covariance and correlation of the two arrays, computed
+	 * in a single pass; a count of zero for empty arrays
+	 */
+	public static Covariance covariance(OpenCLContext context, float[] a, float[] b) {
+		return withBuffers(context, a, b, new Covariance(0, new float[MOMENTS]),
+				(aMem, bMem) -> covariance(context, aMem, bMem));
+	}
+
+
+	/**
+	 * Compute the covariance and correlation of the two buffers in a single
+	 * pass. Each work item keeps Welford's running moments of its elements,
+	 * and these are merged pairwise within each work group and then across
+	 * the work groups.
+	 *
+	 * @return The covariance and correlation of the two buffers
+	 */
+	public static Covariance covariance(OpenCLContext context, OpenCLFloatArray a, OpenCLFloatArray b) {
+		checkLengths(a.size(), b.size());
+
+		cl_kernel reduceKernel = context.getKernel(Constants.COVARIANCE_KERNEL_NAME);
+		cl_kernel combineKernel = context.getKernel(Constants.COMBINE_COVARIANCE_KERNEL_NAME);
+		int localWorkSize = getLocalWorkSize(context, reduceKernel);
+		int numWorkGroups = getNumWorkGroups(a.size(), localWorkSize);
+		int combineWorkSize = getLocalWorkSize(context, combineKernel);
+
+		float[] partialArray = new float[numWorkGroups * MOMENTS];
+		int[] partialCountArray = new int[numWorkGroups];
+		float[] outputArray = new float[MOMENTS];
+		int[] outputCountArray = new int[1];
+
+		try (OpenCLArray partialMem = newOutputArray(context, partialArray);
+				OpenCLArray partialCountMem = newOutputArray(context, partialCountArray);
+				OpenCLArray outputMem = newOutputArray(context, outputArray);
+				OpenCLArray outputCountMem = newOutputArray(context, outputCountArray)) {
+
+			// Moments of each work group
+			int arg = 0;
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_mem, Pointer.to(a.get()));
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_mem, Pointer.to(b.get()));
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_float * MOMENTS * localWorkSize, null);
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_uint * localWorkSize, null);
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_int, Pointer.to(new int[]{a.size()}));
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_mem, Pointer.to(partialMem.get()));
+			clSetKernelArg(reduceKernel, arg++, Sizeof.cl_mem, Pointer.to(partialCountMem.get()));
+			enqueue(context, reduceKernel, numWorkGroups, localWorkSize);
+
+			// Merge them in a single work group
+			arg = 0;
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(partialMem.get()));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(partialCountMem.get()));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_float * MOMENTS * combineWorkSize, null);
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_uint * combineWorkSize, null);
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_int, Pointer.to(new int[]{numWorkGroups}));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(outputMem.get()));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(outputCountMem.get()));
+			enqueue(context, combineKernel, 1, combineWorkSize);
+
+			clEnqueueReadBuffer(context.getQueue(), outputMem.get(), CL_FALSE, 0,
+					MOMENTS * Sizeof.cl_float, outputMem.getPointer(),
+					0, null, null);
+			clEnqueueReadBuffer(context.getQueue(), outputCountMem.get(), CL_TRUE, 0,
+					Sizeof.cl_uint, outputCountMem.getPointer(),
+					0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return new Covariance(outputCountArray[0], outputArray);
+	}
+
+
+	/**
+	 * Dot product of each of the vectors with the query.
+	 *
+	 * @param vectors The vectors, each as long as the query, back to back
+	 * @param query The vector to compare against
+	 * @return The dot product of each vector with the query
+	 */
+	public static float[] dotBatched(OpenCLContext context, float[] vectors, float[] query) {
+		return reduceBatched(context, Constants.DOT_BATCHED_KERNEL_NAME, vectors, query);
+	}
+
+
+	/**
+	 * Squared euclidean distance of each of the vectors to the query.
+	 *
+	 * @param vectors The vectors, each as long as the query, back to back
+	 * @param query The vector to compare against
+	 * @return The squared distance of each vector to the query
+	 */
+	public static float[] squaredDistanceBatched(OpenCLContext context, float[] vectors, float[] query) {
+		return reduceBatched(context, Constants.SQUARED_DISTANCE_BATCHED_KERNEL_NAME, vectors, query);
+	}
+
+
+	/**
+	 * Run one of the two-input summing kernels, which leaves one partial sum
+	 * per work group, and sum the partials with the reduction kernel in a
+	 * single work group so only the result is read back. The reduction
+	 * kernel is looked up by name, since the context's main kernel may be
+	 * any kernel of the program.
+	 */
+	private static float reduceSum(OpenCLContext context, String kernelName, OpenCLFloatArray a, OpenCLFloatArray b) {
+		checkLengths(a.size(), b.size());
+
+		cl_kernel kernel = context.getKernel(kernelName);
+		int localWorkSize = getLocalWorkSize(context, kernel);
+		int numWorkGroups = getNumWorkGroups(a.size(), localWorkSize);
+		cl_kernel combineKernel = context.getKernel(Constants.PROGRAM_NAME);
+		int combineWorkSize = getLocalWorkSize(context, combineKernel);
+
+		float[] partialArray = new float[numWorkGroups];
+		float[] outputArray = new float[1];
+
+		try (OpenCLArray partialMem = newOutputArray(context, partialArray);
+				OpenCLArray outputMem = newOutputArray(context, outputArray)) {
+
+			int arg = 0;
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(a.get()));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(b.get()));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_float * localWorkSize, null);
+			clSetKernelArg(kernel, arg++, Sizeof.cl_int, Pointer.to(new int[]{a.size()}));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(partialMem.get()));
+			enqueue(context, kernel, numWorkGroups, localWorkSize);
+
+			arg = 0;
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(partialMem.get()));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_float * combineWorkSize, null);
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_int, Pointer.to(new int[]{numWorkGroups}));
+			clSetKernelArg(combineKernel, arg++, Sizeof.cl_mem, Pointer.to(outputMem.get()));
+			enqueue(context, combineKernel, 1, combineWorkSize);
+
+			clEnqueueReadBuffer(context.getQueue(), outputMem.get(), CL_TRUE, 0,
+					Sizeof.cl_float, outputMem.getPointer(),
+					0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return outputArray[0];
+	}
+
+
+	/**
+	 * Run one of the batched kernels, with one work group per vector.
+	 */
+	private static float[] reduceBatched(OpenCLContext context, String kernelName, float[] vectors, float[] query) {
+		if (vectors == null || query == null) {
+			throw new NullPointerException("JoclPairwiseReduction#reduceBatched() passed null parameter");
+		}
+		if (query.length == 0 || vectors.length % query.length != 0) {
+			throw new IllegalArgumentException(String.format(
+					"JoclPairwiseReduction#reduceBatched() %s floats aren't vectors of length %s",
+					vectors.length, query.length));
+		}
+
+		int count = vectors.length / query.length;
+		float[] outputArray = new float[count];
+		if (count == 0) {
+			return outputArray;
+		}
+
+		cl_kernel kernel = context.getKernel(kernelName);
+		int localWorkSize = getLocalWorkSize(context, kernel);
+
+		try (OpenCLArray vectorsMem = new OpenCLFloatArray(vectors, Sizeof.cl_float * vectors.length, context.getContext());
+				OpenCLArray queryMem = new OpenCLFloatArray(query, Sizeof.cl_float * query.length, context.getContext());
+				OpenCLArray outputMem = newOutputArray(context, outputArray)) {
+
+			int arg = 0;
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(vectorsMem.get()));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(queryMem.get()));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_float * localWorkSize, null);
+			clSetKernelArg(kernel, arg++, Sizeof.cl_int, Pointer.to(new int[]{query.length}));
+			clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(outputMem.get()));
+			enqueue(context, kernel, count, localWorkSize);
+
+			clEnqueueReadBuffer(context.getQueue(), outputMem.get(), CL_TRUE, 0,
+					count * Sizeof.cl_float, outputMem.getPointer(),
+					0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return outputArray;
+	}
+
+
+	@FunctionalInterface
+	private interface BufferFunction<T> {
+		T apply(OpenCLFloatArray a, OpenCLFloatArray b);
+	}
+
+
+	/**
+	 * Upload both arrays, apply the given function to the buffers and
+	 * release them again. Empty arrays give the given result without
+	 * touching the device, since OpenCL has no empty buffers.
+	 */
+	private static <T> T withBuffers(OpenCLContext context, float[] a, float[] b, T empty, BufferFunction<T> function) {
+		if (a == null || b == null) {
+			throw new NullPointerException("JoclPairwiseReduction#withBuffers() passed null parameter");
+		}
+		checkLengths(a.length, b.length);
+		if (a.length == 0) {
+			return empty;
+		}
+
+		try (OpenCLFloatArray aMem = new OpenCLFloatArray(a, Sizeof.cl_float * a.length, context.getContext());
+				OpenCLFloatArray bMem = new OpenCLFloatArray(b, Sizeof.cl_float * b.length, context.getContext())) {
+			return function.apply(aMem, bMem);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private static void checkLengths(int a, int b) {
+		if (a != b) {
+			throw new IllegalArgumentException(
+					String.format("JoclPairwiseReduction arrays differ in length: %s != %s", a, b));
+		}
+	}
+
+
+	private static OpenCLArray newOutputArray(OpenCLContext context, float[] array) {
+		return new OpenCLFloatArray(array, Sizeof.cl_float * array.length,
+				CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext());
+	}
+
+
+	private static OpenCLArray newOutputArray(OpenCLContext context, int[] array) {
+		return new OpenCLIntArray(array, Sizeof.cl_int * array.length,
+				CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext());
+	}
+
+
+	private static void enqueue(OpenCLContext context, cl_kernel kernel, int numWorkGroups, int localWorkSize) {
+		clEnqueueNDRangeKernel(context.getQueue(), kernel, WORK_DIMENSIONS, null,
+				new long[]{(long) numWorkGroups * localWorkSize}, // Global workspace
+				new long[]{localWorkSize}, // Local workspace
+				0, null, null);
+	}
+
+
+	/**
+	 * @return the largest power of two the kernel accepts as work group size
+	 */
+	private static int getLocalWorkSize(OpenCLContext context, cl_kernel kernel) {
+		long kernelWorkGroupSize = context.getWorkGroupSize(kernel);
+		return Integer.highestOneBit((int) Math.max(1, Math.min(MAX_LOCAL_WORK_SIZE, kernelWorkGroupSize)));
+	}
+
+
+	/**
+	 * @return the number of work groups, without idle groups for small inputs
+	 */
+	private static int getNumWorkGroups(int length, int localWorkSize) {
+		return Math.max(1, Math.min(NUM_WORK_GROUPS, (length + localWorkSize - 1) / localWorkSize));
+	}
+
+}
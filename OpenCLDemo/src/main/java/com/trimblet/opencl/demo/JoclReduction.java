@@ -14,6 +14,8 @@ import org.jocl.Sizeof;
 
 import com.trimblet.opencl.constants.Constants;
 import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
 import com.trimblet.opencl.obj.arrays.OpenCLArray;
 import com.trimblet.opencl.obj.arrays.OpenCLFloatArray;
 import com.trimblet.opencl.utilities.Utilities;
@@ -38,11 +40,16 @@ public final class JoclReduction {
 	 */
 	public static void main(String args[]) throws Exception {
 
-		try (OpenCLContext context = new OpenCLContext(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+		// Build and warm up the context in the background meanwhile
+		OpenCLContextPool pool = OpenCLContextPool.getInstance();
+		pool.registerWarmUp(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME, JoclWarmUps::warmUpReduction);
 
-			// Create input array that will be reduced
-			int n = 1_000;
-			float[] inputArray = Utilities.newTestArray(n);
+		// Create input array that will be reduced
+		int n = 1_000;
+		float[] inputArray = Utilities.newTestArray(n);
+
+		try (Lease lease = pool.lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
 
 			// Compute the reduction on the GPU and the CPU and print the results
 			Long start = System.nanoTime();
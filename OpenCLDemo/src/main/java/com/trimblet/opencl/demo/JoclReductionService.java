@@ -0,0 +1,469 @@
+package com.trimblet.opencl.demo;
+
+import static org.jocl.CL.CL_MEM_COPY_HOST_PTR;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clEnqueueNDRangeKernel;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clSetKernelArg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_kernel;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.arrays.OpenCLArray;
+import com.trimblet.opencl.obj.arrays.OpenCLFloatArray;
+import com.trimblet.opencl.obj.arrays.OpenCLIntArray;
+
+/**
+ * Front end to the sum reduction for many concurrent callers with small
+ * arrays. Requests are queued and a single dispatcher thread packs them
+ * into one upload and one segmented kernel launch, so a batch pays for one
+ * launch and one blocking read instead of one per caller.<br/>
+ * <br/>
+ * A batch is dispatched once it holds <code>maxBatchSize</code> requests
+ * or its oldest request has waited <code>maxWait</code>, whichever comes
+ * first. The service takes over the given {@link OpenCLContext}, built from
+ * {@link Constants#PROGRAM_FILE}; it must not be used elsewhere until the
+ * service is closed.
+ *
+ * @author trimblet
+ */
+public final class JoclReductionService implements AutoCloseable {
+
+	private static final Logger LOG = LogManager.getLogger();
+
+	/** Must be a power of two */
+	private static final int MAX_LOCAL_WORK_SIZE = 256;
+	private static final int WORK_DIMENSIONS = 1;
+	/** Latency histogram bucket i counts latencies in [2^i, 2^(i + 1)) ns */
+	private static final int LATENCY_BUCKETS = Long.SIZE;
+
+
+	private static final class Request {
+		private final float[] array;
+		private final long submitted;
+		private final CompletableFuture<Float> result = new CompletableFuture<>();
+
+		private Request(float[] array) {
+			this.array = array;
+			this.submitted = System.nanoTime();
+		}
+	}
+
+
+	private final OpenCLContext context;
+	private final cl_kernel kernel;
+	private final int localWorkSize;
+	private final int maxBatchSize;
+	private final long maxWaitNanos;
+
+	private final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+	private final Thread dispatcher;
+	private volatile boolean closed = false;
+
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final LongAdder requestCount = new LongAdder();
+	private final LongAdder failedRequestCount = new LongAdder();
+	private final LongAdder batchCount = new LongAdder();
+	private final AtomicInteger largestBatchSize = new AtomicInteger();
+	private final LongAdder totalLatencyNanos = new LongAdder();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+
+
+	/**
+	 * @param context the {@link OpenCLContext} the service dispatches to
+	 * @param maxBatchSize the maximum number of requests per launch
+	 * @param maxWait how long a request may wait for others to join its batch
+	 * @param unit the unit of <code>maxWait</code>
+	 */
+	public JoclReductionService(OpenCLContext context, int maxBatchSize, long maxWait, TimeUnit unit) {
+		if (context == null || unit == null) {
+			throw new NullPointerException("JoclReductionService#() passed null parameter");
+		}
+		if (maxBatchSize < 1 || maxWait < 0) {
+			throw new IllegalArgumentException(String.format(
+					"JoclReductionService#() invalid batch policy: %s requests, %s %s", maxBatchSize, maxWait, unit));
+		}
+		this.context = context;
+		this.kernel = context.getKernel(Constants.SEGMENTED_KERNEL_NAME);
+		this.localWorkSize = getLocalWorkSize(context, this.kernel);
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+
+		this.dispatcher = new Thread(this::dispatch, "jocl-reduction-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+
+	/**
+	 * Queue the reduction of the given array.
+	 *
+	 * @param inputArray The array on which the reduction will be performed
+	 * @return The result of the reduction, completed by the dispatcher
+	 */
+	public CompletableFuture<Float> submit(float[] inputArray) {
+		if (inputArray == null) {
+			throw new NullPointerException("JoclReductionService#submit() passed null parameter");
+		}
+		if (this.closed) {
+			throw new IllegalStateException("JoclReductionService is closed");
+		}
+		Request request = new Request(inputArray);
+		// Counted before it's queued, so the dispatcher never takes the depth below zero
+		this.queueDepth.incrementAndGet();
+		this.queue.offer(request);
+		LockSupport.unpark(this.dispatcher);
+
+		// Don't strand the request if close() drained the queue meanwhile
+		if (this.closed && this.queue.remove(request)) {
+			this.queueDepth.decrementAndGet();
+			request.result.completeExceptionally(new IllegalStateException("JoclReductionService is closed"));
+		}
+		return request.result;
+	}
+
+
+	/**
+	 * Blocking variant of {@link #submit(float[])} with the signature of
+	 * {@link JoclReduction#reduce(OpenCLContext, float[])}.
+	 *
+	 * @param inputArray The array on which the reduction will be performed
+	 * @return The result of the reduction
+	 */
+	public float reduce(float[] inputArray) {
+		try {
+			return this.submit(inputArray).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+
+	/**
+	 * @return the number of requests waiting for a batch
+	 */
+	public int getQueueDepth() {
+		return this.queueDepth.get();
+	}
+
+	/**
+	 * @return the number of requests completed successfully so far
+	 */
+	public long getRequestCount() {
+		return this.requestCount.sum();
+	}
+
+	/**
+	 * @return the number of requests of failed batches so far
+	 */
+	public long getFailedRequestCount() {
+		return this.failedRequestCount.sum();
+	}
+
+	/**
+	 * @return the number of batches dispatched so far, including failed ones
+	 */
+	public long getBatchCount() {
+		return this.batchCount.sum();
+	}
+
+	/**
+	 * @return the mean number of requests per batch, including failed ones
+	 */
+	public double getMeanBatchSize() {
+		long batches = this.batchCount.sum();
+		long requests = this.requestCount.sum() + this.failedRequestCount.sum();
+		return batches == 0 ? 0.0 : (double) requests / batches;
+	}
+
+	/**
+	 * @return the largest number of requests dispatched in one batch
+	 */
+	public int getLargestBatchSize() {
+		return this.largestBatchSize.get();
+	}
+
+	/**
+	 * @return the mean time from submission to successful completion of a request
+	 */
+	public long getMeanLatencyNanos() {
+		long requests = this.requestCount.sum();
+		return requests == 0 ? 0 : this.totalLatencyNanos.sum() / requests;
+	}
+
+	/**
+	 * @return the longest time from submission to completion of a request
+	 */
+	public long getMaxLatencyNanos() {
+		return this.maxLatencyNanos.get();
+	}
+
+	/**
+	 * Latency percentile of successful requests, e.g. <code>0.99</code> for
+	 * the p99. Latencies are kept in power of two buckets, so the result is
+	 * the upper bound of the bucket holding the percentile, at most twice
+	 * the exact value and never more than {@link #getMaxLatencyNanos()}.
+	 *
+	 * @param percentile the fraction of requests, in <code>(0, 1]</code>
+	 * @return the latency which that fraction of requests didn't exceed
+	 */
+	public long getLatencyPercentileNanos(double percentile) {
+		if (!(percentile > 0.0 && percentile <= 1.0)) {
+			throw new IllegalArgumentException("JoclReductionService#getLatencyPercentileNanos() invalid percentile: " + percentile);
+		}
+		long[] counts = new long[LATENCY_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			counts[i] = this.latencyHistogram.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		int bucket = 0;
+		for (; bucket < LATENCY_BUCKETS - 1; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				break;
+			}
+		}
+		long upperBound = bucket >= LATENCY_BUCKETS - 2 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+		return Math.min(upperBound, this.getMaxLatencyNanos());
+	}
+
+
+	/**
+	 * Stop the dispatcher. Requests still queued fail with an
+	 * {@link IllegalStateException}. The context is left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		LockSupport.unpark(this.dispatcher);
+		try {
+			this.dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Request request;
+		while ((request = this.queue.poll()) != null) {
+			this.queueDepth.decrementAndGet();
+			request.result.completeExceptionally(new IllegalStateException("JoclReductionService is closed"));
+		}
+	}
+
+
+	/**
+	 * Dispatcher loop: wait for a first request, gather more until the batch
+	 * is full or the first request's wait is up, then run the batch. If the
+	 * loop dies, e.g. of an {@link Error}, the service closes itself so no
+	 * request is left waiting for a dispatcher that's gone.
+	 */
+	private void dispatch() {
+		List<Request> batch = new ArrayList<>(this.maxBatchSize);
+		Throwable cause = null;
+		try {
+			while (!this.closed) {
+				Request first = this.queue.poll();
+				if (first == null) {
+					LockSupport.park(this);
+					continue;
+				}
+				this.queueDepth.decrementAndGet();
+				batch.add(first);
+
+				long deadline = first.submitted + this.maxWaitNanos;
+				while (batch.size() < this.maxBatchSize && !this.closed) {
+					Request next = this.queue.poll();
+					if (next != null) {
+						this.queueDepth.decrementAndGet();
+						batch.add(next);
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+
+				this.batchCount.increment();
+				this.largestBatchSize.accumulateAndGet(batch.size(), Math::max);
+				try {
+					this.complete(batch, this.reduceBatch(batch));
+				} catch (Throwable t) {
+					LOG.error("Reduction batch failed", t);
+					this.fail(batch, t);
+					if (t instanceof Error) {
+						throw (Error) t;
+					}
+				}
+				batch.clear();
+			}
+		} catch (Throwable t) {
+			cause = t;
+		} finally {
+			if (cause != null) {
+				LOG.error("Reduction dispatcher died, closing service", cause);
+				this.closed = true;
+				IllegalStateException closed = new IllegalStateException("JoclReductionService dispatcher died", cause);
+				this.fail(batch, closed);
+				Request request;
+				while ((request = this.queue.poll()) != null) {
+					this.queueDepth.decrementAndGet();
+					this.fail(Collections.singletonList(request), closed);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Complete the requests of the batch with their results and record
+	 * their latencies. The metrics are recorded first, so that a caller
+	 * seeing its result also sees it counted.
+	 */
+	private void complete(List<Request> batch, float[] results) {
+		long now = System.nanoTime();
+		for (int i = 0; i < batch.size(); i++) {
+			Request request = batch.get(i);
+			if (request.result.isDone()) {
+				continue;
+			}
+			long latency = Math.max(1, now - request.submitted);
+			this.totalLatencyNanos.add(latency);
+			this.maxLatencyNanos.accumulateAndGet(latency, Math::max);
+			this.latencyHistogram.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(latency));
+			this.requestCount.increment();
+			request.result.complete(results[i]);
+		}
+	}
+
+
+	/**
+	 * Fail the requests of the batch that aren't complete yet, counting
+	 * them before their callers are woken up.
+	 */
+	private void fail(List<Request> batch, Throwable cause) {
+		for (Request request : batch) {
+			if (!request.result.isDone()) {
+				this.failedRequestCount.increment();
+				request.result.completeExceptionally(cause);
+			}
+		}
+	}
+
+
+	/**
+	 * Pack the arrays of the batch into one buffer and reduce each segment
+	 * in its own work group.
+	 *
+	 * @return the result of each request of the batch
+	 */
+	private float[] reduceBatch(List<Request> batch) {
+		int numSegments = batch.size();
+		int[] offsets = new int[numSegments + 1];
+		for (int i = 0; i < numSegments; i++) {
+			offsets[i + 1] = offsets[i] + batch.get(i).array.length;
+		}
+		if (offsets[numSegments] == 0) {
+			return new float[numSegments];
+		}
+
+		float[] inputArray = new float[offsets[numSegments]];
+		for (int i = 0; i < numSegments; i++) {
+			float[] array = batch.get(i).array;
+			System.arraycopy(array, 0, inputArray, offsets[i], array.length);
+		}
+		return reduceSegments(this.context, this.kernel, this.localWorkSize, inputArray, offsets);
+	}
+
+
+	/**
+	 * Run a dummy segmented reduction so that lazy driver initialisation
+	 * isn't paid for by the first batch
+	 *
+	 * @param context the {@link OpenCLContext} to warm up
+	 */
+	static void warmUp(OpenCLContext context) {
+		cl_kernel kernel = context.getKernel(Constants.SEGMENTED_KERNEL_NAME);
+		reduceSegments(context, kernel, getLocalWorkSize(context, kernel), new float[]{0.0f}, new int[]{0, 1});
+	}
+
+
+	/**
+	 * Sum each segment of the input array in its own work group.
+	 *
+	 * @param inputArray The segments, back to back, at least one element
+	 * @param offsets The start of each segment, followed by the end of the last
+	 * @return The sum of each segment
+	 */
+	private static float[] reduceSegments(OpenCLContext context, cl_kernel kernel, int localWorkSize,
+			float[] inputArray, int[] offsets) {
+		int numSegments = offsets.length - 1;
+		float[] outputArray = new float[numSegments];
+
+		try (OpenCLArray inputMem = new OpenCLFloatArray(inputArray, Sizeof.cl_float * inputArray.length, context.getContext());
+				OpenCLArray offsetsMem = new OpenCLIntArray(offsets, Sizeof.cl_int * offsets.length, context.getContext());
+				OpenCLArray outputMem = new OpenCLFloatArray(outputArray, Sizeof.cl_float * numSegments,
+						CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext())) {
+
+			int a = 0;
+			clSetKernelArg(kernel, a++, Sizeof.cl_mem, Pointer.to(inputMem.get()));
+			clSetKernelArg(kernel, a++, Sizeof.cl_mem, Pointer.to(offsetsMem.get()));
+			clSetKernelArg(kernel, a++, Sizeof.cl_float * localWorkSize, null);
+			clSetKernelArg(kernel, a++, Sizeof.cl_mem, Pointer.to(outputMem.get()));
+
+			// One work group per segment
+			clEnqueueNDRangeKernel(context.getQueue(), kernel, WORK_DIMENSIONS, null,
+					new long[]{(long) numSegments * localWorkSize}, // Global workspace
+					new long[]{localWorkSize}, // Local workspace
+					0, null, null);
+
+			clEnqueueReadBuffer(context.getQueue(), outputMem.get(), CL_TRUE, 0,
+					numSegments * Sizeof.cl_float, outputMem.getPointer(),
+					0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return outputArray;
+	}
+
+
+	/**
+	 * @return the largest power of two the kernel accepts as work group size
+	 */
+	private static int getLocalWorkSize(OpenCLContext context, cl_kernel kernel) {
+		return Integer.highestOneBit((int) Math.max(1,
+				Math.min(MAX_LOCAL_WORK_SIZE, context.getWorkGroupSize(kernel))));
+	}
+
+}
@@ -0,0 +1,256 @@
+package com.trimblet.opencl.demo;
+
+import static org.jocl.CL.CL_FALSE;
+import static org.jocl.CL.CL_MEM_COPY_HOST_PTR;
+import static org.jocl.CL.CL_MEM_READ_WRITE;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clEnqueueNDRangeKernel;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clSetKernelArg;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.arrays.OpenCLArray;
+import com.trimblet.opencl.obj.arrays.OpenCLFloatArray;
+import com.trimblet.opencl.obj.arrays.OpenCLIntArray;
+import com.trimblet.opencl.utilities.Utilities;
+
+/**
+ * Selection of the k largest values of a float array, and their indices,
+ * on the GPU. Expects an {@link OpenCLContext} built from
+ * {@link Constants#TOPK_PROGRAM_FILE} and {@link Constants#TOPK_PROGRAM_NAME}.
+ *
+ * @author trimblet
+ */
+public final class JoclTopK {
+
+	private static final Logger LOG = LogManager.getLogger();
+
+	/** Must be a power of two */
+	private static final int MAX_LOCAL_WORK_SIZE = 256;
+	private static final int NUM_WORK_GROUPS = 64;
+	private static final int WORK_DIMENSIONS = 1;
+
+
+	private JoclTopK() {}
+
+
+	/**
+	 * The entry point of this sample
+	 *
+	 * @param args Not used
+	 * @throws IOException
+	 */
+	public static void main(String args[]) throws Exception {
+
+		try (OpenCLContext context = new OpenCLContext(Constants.TOPK_PROGRAM_FILE, Constants.TOPK_PROGRAM_NAME)) {
+
+			int n = 1_000;
+			int k = 5;
+			float[] inputArray = Utilities.newTestArray(n);
+
+			Long start = System.nanoTime();
+			TopK resultGPU = topK(context, inputArray, k);
+			Long end = System.nanoTime();
+			System.out.println(String.format("GPU: top%s(%s) = %s (%sms)", k, n, resultGPU, ((end - start)/1000)));
+		}
+	}
+
+
+	/**
+	 * The result of {@link JoclTopK#topK(OpenCLContext, float[], int)}
+	 */
+	public static final class TopK {
+
+		private final float[] values;
+		private final int[] indices;
+
+		private TopK(float[] values, int[] indices) {
+			this.values = values;
+			this.indices = indices;
+		}
+
+		/**
+		 * @return the selected values, largest first
+		 */
+		public final float[] getValues() {
+			return this.values;
+		}
+
+		/**
+		 * @return the index in the input of each of the selected values
+		 */
+		public final int[] getIndices() {
+			return this.indices;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("TopK[values=%s, indices=%s]", Arrays.toString(this.values), Arrays.toString(this.indices));
+		}
+	}
+
+
+	/**
+	 * Select the k largest values of the given input array.<br/>
+	 * <br/>
+	 * Each work group keeps its best k candidates at the front of a tile in
+	 * local memory, refills the rest of the tile from its chunk of the input
+	 * and bitonic sorts it, until the chunk is exhausted. The candidates of
+	 * all work groups are then merged the same way by a single work group,
+	 * so only k (value, index) pairs are read back. Ties are resolved in
+	 * favour of the lower index, and NaNs are ignored.
+	 *
+	 * @param context the {@link OpenCLContext} object wrapping this action
+	 * @param inputArray The array to select from
+	 * @param k The number of values to select
+	 * @return The k largest values, largest first, with their indices;
+	 * fewer if the input has fewer non-NaN values
+	 */
+	public static TopK topK(OpenCLContext context, float[] inputArray, int k) {
+		if (inputArray == null) {
+			throw new NullPointerException("JoclTopK#topK() passed null parameter");
+		}
+		if (k < 0) {
+			throw new IllegalArgumentException("JoclTopK#topK() k must not be negative: " + k);
+		}
+		k = Math.min(k, inputArray.length);
+		if (k == 0) {
+			return new TopK(new float[0], new int[0]);
+		}
+
+		// Size the tile so that it holds k candidates and at least as many new elements
+		int localWorkSize = Integer.highestOneBit((int) Math.max(1,
+				Math.min(MAX_LOCAL_WORK_SIZE, context.getWorkGroupSize(context.getKernel()))));
+		long available = context.getAvailableLocalMemSize(context.getKernel());
+		int maxTileSize = Integer.highestOneBit((int) Math.max(1,
+				Math.min(Integer.MAX_VALUE, available / (Sizeof.cl_float + Sizeof.cl_int))));
+		int tileSize = Math.max(nextPowerOfTwo(2 * k), 2 * localWorkSize);
+		if (tileSize > maxTileSize) {
+			tileSize = nextPowerOfTwo(2 * k);
+			localWorkSize = Math.min(localWorkSize, tileSize / 2);
+		}
+		if (tileSize > maxTileSize) {
+			throw new IllegalArgumentException(String.format(
+					"JoclTopK#topK() k = %s exceeds local memory, at most %s supported", k, maxTileSize / 2));
+		}
+
+		int numWorkGroups = Math.max(1, Math.min(NUM_WORK_GROUPS,
+				(inputArray.length + tileSize - k - 1) / (tileSize - k)));
+		int chunk = (inputArray.length + numWorkGroups - 1) / numWorkGroups;
+
+		float[] values = new float[k];
+		int[] indices = new int[k];
+
+		// Allocate the memory objects for the input- and output data
+		try (OpenCLArray inputMem = new OpenCLFloatArray(inputArray, Sizeof.cl_float * inputArray.length, context.getContext());
+				OpenCLArray valuesMem = new OpenCLFloatArray(values, Sizeof.cl_float * k,
+						CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext());
+				OpenCLArray indicesMem = new OpenCLIntArray(indices, Sizeof.cl_int * k,
+						CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext())) {
+
+			if (numWorkGroups == 1) {
+				// A single work group sees the whole input
+				topKIntoArray(context, inputMem, inputMem, false, k, chunk, tileSize,
+						valuesMem, indicesMem, 1, localWorkSize);
+			} else {
+				// Candidates of each work group, merged by a single one
+				int numCandidates = numWorkGroups * k;
+				try (OpenCLArray candidateValuesMem = new OpenCLFloatArray(new float[numCandidates], Sizeof.cl_float * numCandidates,
+								CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext());
+						OpenCLArray candidateIndicesMem = new OpenCLIntArray(new int[numCandidates], Sizeof.cl_int * numCandidates,
+								CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR, context.getContext())) {
+					topKIntoArray(context, inputMem, inputMem, false, k, chunk, tileSize,
+							candidateValuesMem, candidateIndicesMem, numWorkGroups, localWorkSize);
+					topKIntoArray(context, candidateValuesMem, candidateIndicesMem, true, k, numCandidates, tileSize,
+							valuesMem, indicesMem, 1, localWorkSize);
+				}
+			}
+
+			// Read the output data
+			clEnqueueReadBuffer(context.getQueue(), valuesMem.get(), CL_FALSE, 0,
+					Sizeof.cl_float * k, valuesMem.getPointer(), 0, null, null);
+			clEnqueueReadBuffer(context.getQueue(), indicesMem.get(), CL_TRUE, 0,
+					Sizeof.cl_int * k, indicesMem.getPointer(), 0, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		// Drop the empty slots left when there were fewer non-NaN values than k
+		int found = 0;
+		while (found < k && indices[found] >= 0) {
+			found++;
+		}
+		if (found < k) {
+			LOG.debug(String.format("Only %s of %s values selected", found, k));
+			return new TopK(Arrays.copyOf(values, found), Arrays.copyOf(indices, found));
+		}
+		return new TopK(values, indices);
+	}
+
+
+	/**
+	 * Select the k best (value, index) pairs of each work group's chunk of
+	 * the given memory.
+	 *
+	 * @param context the {@link OpenCLContext} object wrapping this action
+	 * @param valuesMem The values to select from
+	 * @param indicesMem The indices of the values, only read if <code>useIndices</code>
+	 * @param useIndices Whether to take indices from <code>indicesMem</code>
+	 * rather than the position in <code>valuesMem</code>
+	 * @param k The number of pairs to select per work group
+	 * @param chunk The number of values per work group
+	 * @param tileSize The number of pairs sorted at once in local memory
+	 * @param resultValuesMem The output memory for <code>k</code> values per work group
+	 * @param resultIndicesMem The output memory for <code>k</code> indices per work group
+	 * @param numWorkGroups The number of work groups
+	 * @param localWorkSize The local work size, that is, the number of
+	 * work items in each work group
+	 */
+	private static void topKIntoArray(
+			OpenCLContext context,
+			OpenCLArray valuesMem,
+			OpenCLArray indicesMem,
+			boolean useIndices,
+			int k,
+			int chunk,
+			int tileSize,
+			OpenCLArray resultValuesMem,
+			OpenCLArray resultIndicesMem,
+			int numWorkGroups,
+			int localWorkSize) {
+		// Set the arguments for the kernel
+		int a = 0;
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(valuesMem.get()));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(indicesMem.get()));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{useIndices ? 1 : 0}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{valuesMem.size()}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{k}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{chunk}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int, Pointer.to(new int[]{tileSize}));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_float * tileSize, null);
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_int * tileSize, null);
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(resultValuesMem.get()));
+		clSetKernelArg(context.getKernel(), a++, Sizeof.cl_mem, Pointer.to(resultIndicesMem.get()));
+
+		// Execute the kernel
+		clEnqueueNDRangeKernel(context.getQueue(), context.getKernel(), WORK_DIMENSIONS, null,
+				new long[]{(long) numWorkGroups * localWorkSize}, // Global workspace
+				new long[]{localWorkSize}, // Local workspace
+				0, null, null);
+	}
+
+
+	private static int nextPowerOfTwo(int value) {
+		return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+	}
+
+}
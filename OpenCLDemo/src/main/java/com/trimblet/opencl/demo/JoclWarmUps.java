@@ -0,0 +1,57 @@
+package com.trimblet.opencl.demo;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+
+/**
+ * Dummy launches of every kernel of each program, so that contexts handed
+ * out by the {@link OpenCLContextPool} have paid for lazy driver
+ * initialisation already.
+ *
+ * @author trimblet
+ */
+public final class JoclWarmUps {
+
+	private JoclWarmUps() {}
+
+
+	/**
+	 * Register the warm-ups of all programs of this project with the pool,
+	 * which also starts building their contexts in the background. Callers
+	 * needing a single program should register only its warm-up.
+	 *
+	 * @param pool the pool to register with
+	 */
+	public static void registerDefaults(OpenCLContextPool pool) {
+		pool.registerWarmUp(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME, JoclWarmUps::warmUpReduction);
+		pool.registerWarmUp(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME, JoclWarmUps::warmUpHistogram);
+		pool.registerWarmUp(Constants.TOPK_PROGRAM_FILE, Constants.TOPK_PROGRAM_NAME, JoclWarmUps::warmUpTopK);
+	}
+
+
+	/**
+	 * Launch the sum, two-input, batched, covariance and segmented kernels
+	 */
+	static void warmUpReduction(OpenCLContext context) {
+		float[] array = {0.0f};
+		JoclReduction.reduce(context, array);
+		JoclPairwiseReduction.dot(context, array, array);
+		JoclPairwiseReduction.squaredDistance(context, array, array);
+		JoclPairwiseReduction.covariance(context, array, array);
+		JoclPairwiseReduction.dotBatched(context, array, array);
+		JoclPairwiseReduction.squaredDistanceBatched(context, array, array);
+		JoclReductionService.warmUp(context);
+	}
+
+
+	static void warmUpHistogram(OpenCLContext context) {
+		JoclHistogram.histogram(context, new float[]{0.0f}, 0.0f, 1.0f, 1);
+	}
+
+
+	static void warmUpTopK(OpenCLContext context) {
+		JoclTopK.topK(context, new float[]{0.0f}, 1);
+	}
+
+}
@@ -1,13 +1,18 @@
 package com.trimblet.opencl.obj;
 
 import static org.jocl.CL.CL_CONTEXT_PLATFORM;
+import static org.jocl.CL.CL_DEVICE_LOCAL_MEM_SIZE;
 import static org.jocl.CL.CL_DEVICE_TYPE_ALL;
+import static org.jocl.CL.CL_KERNEL_LOCAL_MEM_SIZE;
+import static org.jocl.CL.CL_KERNEL_WORK_GROUP_SIZE;
 import static org.jocl.CL.clBuildProgram;
 import static org.jocl.CL.clCreateCommandQueue;
 import static org.jocl.CL.clCreateContext;
 import static org.jocl.CL.clCreateKernel;
 import static org.jocl.CL.clCreateProgramWithSource;
 import static org.jocl.CL.clGetDeviceIDs;
+import static org.jocl.CL.clGetDeviceInfo;
+import static org.jocl.CL.clGetKernelWorkGroupInfo;
 import static org.jocl.CL.clGetPlatformIDs;
 import static org.jocl.CL.clReleaseCommandQueue;
 import static org.jocl.CL.clReleaseContext;
@@ -18,10 +23,14 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
 import org.jocl.cl_command_queue;
 import org.jocl.cl_context;
 import org.jocl.cl_context_properties;
@@ -38,24 +47,42 @@ public final class OpenCLContext implements AutoCloseable {
 
 	/** The OpenCL context */
 	private final cl_context context;
+	/** The OpenCL device on which the context was created */
+	private final cl_device_id device;
 	/** The OpenCL command queue to which the all work will be dispatched */
 	private final cl_command_queue commandQueue;
 	/** The OpenCL program containing the reduction kernel */
 	private final cl_program program;
 	/** The OpenCL kernel that performs the reduction */
 	private final cl_kernel kernel;
+	/** Further kernels of the program, created on first use */
+	private final Map<String, cl_kernel> kernels = new HashMap<>();
+	/**
+	 * Local memory each kernel uses by itself, read before any
+	 * <code>__local</code> argument is set, which would be counted too
+	 */
+	private final Map<cl_kernel, Long> staticLocalMemSizes = new HashMap<>();
+	/** The local memory of the device */
+	private final long localMemSize;
 
 
 	public OpenCLContext(String programFile, String programName) {
+		this(programFile, programName, 0);
+	}
+
+
+	/**
+	 * @param deviceIndex the index of the device among all devices of the
+	 * first platform
+	 */
+	public OpenCLContext(String programFile, String programName, int deviceIndex) {
 		if (programFile == null || programName == null) {
 			throw new NullPointerException();
 		}
 
-		// The platform, device type and device number
-		// that will be used
+		// The platform and device type that will be used
 		final int platformIndex = 0;
 		final long deviceType = CL_DEVICE_TYPE_ALL;
-		final int deviceIndex = 0;
 
 		// Enable exceptions and subsequently omit error checks in this sample
 		CL.setExceptionsEnabled(true);
@@ -82,15 +109,15 @@ public final class OpenCLContext implements AutoCloseable {
 		// Obtain a device ID
 		cl_device_id devices[] = new cl_device_id[numDevices];
 		clGetDeviceIDs(platform, deviceType, numDevices, devices, null);
-		cl_device_id device = devices[deviceIndex];
+		this.device = devices[deviceIndex];
 
 		// Create a context for the selected device
 		this.context = clCreateContext(
-				contextProperties, 1, new cl_device_id[]{device},
+				contextProperties, 1, new cl_device_id[]{this.device},
 				null, null, null);
 
 		// Create a command-queue for the selected device
-		this.commandQueue = clCreateCommandQueue(context, device, 0, null);
+		this.commandQueue = clCreateCommandQueue(this.context, this.device, 0, null);
 
 		// Create the program from the source code
 		String programSource = readFile(programFile);
@@ -100,8 +127,14 @@ public final class OpenCLContext implements AutoCloseable {
 		// Build the program
 		clBuildProgram(this.program, 0, null, null, null, null);
 
+		long[] localMemSizeArray = new long[1];
+		clGetDeviceInfo(this.device, CL_DEVICE_LOCAL_MEM_SIZE,
+				Sizeof.cl_ulong, Pointer.to(localMemSizeArray), null);
+		this.localMemSize = localMemSizeArray[0];
+
 		// Create the kernel
-		this.kernel = clCreateKernel(this.program, programName, null);
+		this.kernel = this.createKernel(programName);
+		this.kernels.put(programName, this.kernel);
 	}
 
 
@@ -109,10 +142,64 @@ public final class OpenCLContext implements AutoCloseable {
 		return this.context;
 	}
 
+	public final cl_device_id getDevice() {
+		return this.device;
+	}
+
 	public final cl_kernel getKernel() {
 		return this.kernel;
 	}
 
+	/**
+	 * Get another kernel of this context's program. Kernels are created on
+	 * first use and released when the context is closed.
+	 *
+	 * @param kernelName the name of the <code>__kernel</code> function
+	 * @return the kernel
+	 */
+	public final cl_kernel getKernel(String kernelName) {
+		if (kernelName == null) {
+			throw new NullPointerException("OpenCLContext#getKernel() passed null parameter");
+		}
+		return this.kernels.computeIfAbsent(kernelName, this::createKernel);
+	}
+
+	/**
+	 * @return the maximum number of work items per work group for
+	 * the given kernel on this context's device
+	 */
+	public final long getWorkGroupSize(cl_kernel kernel) {
+		long[] workGroupSize = new long[1];
+		clGetKernelWorkGroupInfo(kernel, this.device, CL_KERNEL_WORK_GROUP_SIZE,
+				Sizeof.size_t, Pointer.to(workGroupSize), null);
+		return workGroupSize[0];
+	}
+
+	/**
+	 * @return the number of bytes of local memory left over for
+	 * <code>__local</code> kernel arguments of the given kernel
+	 */
+	public final long getAvailableLocalMemSize(cl_kernel kernel) {
+		Long staticLocalMemSize = this.staticLocalMemSizes.get(kernel);
+		if (staticLocalMemSize == null) {
+			throw new IllegalArgumentException("OpenCLContext#getAvailableLocalMemSize() kernel isn't from this context");
+		}
+		return this.localMemSize - staticLocalMemSize;
+	}
+
+	/**
+	 * Create a kernel of this context's program and record the local memory
+	 * it uses before any of its arguments are set.
+	 */
+	private cl_kernel createKernel(String kernelName) {
+		cl_kernel newKernel = clCreateKernel(this.program, kernelName, null);
+		long[] kernelLocalMemSize = new long[1];
+		clGetKernelWorkGroupInfo(newKernel, this.device, CL_KERNEL_LOCAL_MEM_SIZE,
+				Sizeof.cl_ulong, Pointer.to(kernelLocalMemSize), null);
+		this.staticLocalMemSizes.put(newKernel, kernelLocalMemSize[0]);
+		return newKernel;
+	}
+
 	public final cl_program getProgram() {
 		return this.program;
 	}
@@ -124,7 +211,9 @@ public final class OpenCLContext implements AutoCloseable {
 
 	@Override
 	public void close() throws IOException {
-		clReleaseKernel(this.kernel);
+		for (cl_kernel k : this.kernels.values()) {
+			clReleaseKernel(k);
+		}
 		clReleaseProgram(this.program);
 		clReleaseCommandQueue(this.commandQueue);
 		clReleaseContext(this.context);
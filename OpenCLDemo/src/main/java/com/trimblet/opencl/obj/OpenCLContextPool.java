@@ -0,0 +1,350 @@
+package com.trimblet.opencl.obj;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide pool of {@link OpenCLContext} objects, keyed by program and
+ * device, so that platform and device enumeration, context and queue
+ * creation and the program build are paid once rather than per use.<br/>
+ * <br/>
+ * Contexts are leased exclusively, since kernel arguments are shared state,
+ * and go back to the pool when the {@link Lease} is closed. The pool knows
+ * no programs itself: callers register a warm-up launch of their program's
+ * kernels with {@link #registerWarmUp}, run on every new context of that
+ * program so that lazy driver initialisation is done before the first real
+ * use, or request a context in advance with {@link #prewarm}. Each key is
+ * built on its own background thread, so a lease never waits for the build
+ * of another program. Idle and leased contexts alike are released by a JVM
+ * shutdown hook.
+ *
+ * @author trimblet
+ */
+public final class OpenCLContextPool {
+
+	private static final Logger LOG = LogManager.getLogger();
+
+
+	private static final class Holder {
+		private static final OpenCLContextPool INSTANCE = new OpenCLContextPool();
+	}
+
+
+	/**
+	 * @return the pool of this JVM
+	 */
+	public static OpenCLContextPool getInstance() {
+		return Holder.INSTANCE;
+	}
+
+
+	private static final class Key {
+		private final String programFile;
+		private final String programName;
+		private final int deviceIndex;
+
+		private Key(String programFile, String programName, int deviceIndex) {
+			if (programFile == null || programName == null) {
+				throw new NullPointerException("OpenCLContextPool.Key#() passed null parameter");
+			}
+			this.programFile = programFile;
+			this.programName = programName;
+			this.deviceIndex = deviceIndex;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.programFile.equals(other.programFile)
+					&& this.programName.equals(other.programName)
+					&& this.deviceIndex == other.deviceIndex;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.programFile, this.programName, this.deviceIndex);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s#%s@%s", this.programFile, this.programName, this.deviceIndex);
+		}
+	}
+
+
+	private static final class Entry {
+		/** Contexts ready to be leased */
+		private final Deque<OpenCLContext> idle = new ConcurrentLinkedDeque<>();
+		/** Run on every new context of this key */
+		private volatile Consumer<OpenCLContext> warmup;
+		/** The background creation of a context, if any */
+		private volatile Future<?> pending;
+
+		private Entry(Consumer<OpenCLContext> warmup) {
+			this.warmup = warmup;
+		}
+	}
+
+
+	/**
+	 * An {@link OpenCLContext} leased from the pool. Closing the lease
+	 * returns the context to the pool instead of releasing it.
+	 */
+	public final class Lease implements AutoCloseable {
+
+		private final Entry entry;
+		private OpenCLContext context;
+
+		private Lease(Entry entry, OpenCLContext context) {
+			this.entry = entry;
+			this.context = context;
+		}
+
+		public final OpenCLContext get() {
+			if (this.context == null) {
+				throw new IllegalStateException("OpenCLContextPool.Lease is closed");
+			}
+			return this.context;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.context != null) {
+				// The shutdown hook may have released it already
+				if (OpenCLContextPool.this.leased.remove(this.context)) {
+					release(this.entry, this.context);
+				}
+				this.context = null;
+			}
+		}
+	}
+
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	/** Contexts currently leased, released by the shutdown hook if still out */
+	private final Set<OpenCLContext> leased = ConcurrentHashMap.newKeySet();
+	/** Warm-ups by program file and main kernel, for any device */
+	private final Map<String, Consumer<OpenCLContext>> warmups = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	private volatile boolean shutdown = false;
+
+
+	private OpenCLContextPool() {
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "opencl-context-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "opencl-context-pool-shutdown"));
+	}
+
+
+	/**
+	 * Register the warm-up run on every new context of the given program,
+	 * on any device, and start building one for the first device in the
+	 * background.
+	 *
+	 * @param programFile the program file, see {@link OpenCLContext}
+	 * @param programName the main kernel, see {@link OpenCLContext}
+	 * @param warmup a dummy launch of every kernel of the program
+	 */
+	public void registerWarmUp(String programFile, String programName, Consumer<OpenCLContext> warmup) {
+		if (warmup == null) {
+			throw new NullPointerException("OpenCLContextPool#registerWarmUp() passed null parameter");
+		}
+		this.warmups.put(warmUpKey(programFile, programName), warmup);
+		for (Map.Entry<Key, Entry> entry : this.entries.entrySet()) {
+			Key key = entry.getKey();
+			if (key.programFile.equals(programFile) && key.programName.equals(programName)) {
+				entry.getValue().warmup = warmup;
+			}
+		}
+		this.prewarm(programFile, programName, null);
+	}
+
+
+	/**
+	 * @see #prewarm(String, String, int, Consumer)
+	 */
+	public Future<?> prewarm(String programFile, String programName, Consumer<OpenCLContext> warmup) {
+		return this.prewarm(programFile, programName, 0, warmup);
+	}
+
+
+	/**
+	 * Create a context for the given program and device on the background
+	 * thread, unless one is idle already, and run the warm-up on it. A
+	 * given warm-up replaces the registered one for this key, and is also
+	 * run on contexts of this key that are created later on demand.
+	 *
+	 * @param programFile the program file, see {@link OpenCLContext}
+	 * @param programName the main kernel, see {@link OpenCLContext}
+	 * @param deviceIndex the device, see {@link OpenCLContext}
+	 * @param warmup a dummy launch of the program's kernels, or null
+	 * for the registered one
+	 * @return the completion of the background work
+	 */
+	public Future<?> prewarm(String programFile, String programName, int deviceIndex, Consumer<OpenCLContext> warmup) {
+		Key key = new Key(programFile, programName, deviceIndex);
+		Entry entry = this.getEntry(key);
+		if (warmup != null) {
+			entry.warmup = warmup;
+		}
+		synchronized (entry) {
+			if (entry.pending != null && !entry.pending.isDone()) {
+				return entry.pending;
+			}
+			if (!entry.idle.isEmpty() || this.shutdown) {
+				return CompletableFuture.completedFuture(null);
+			}
+			entry.pending = this.executor.submit(() -> {
+				OpenCLContext context = this.create(key, entry);
+				this.release(entry, context);
+			});
+			return entry.pending;
+		}
+	}
+
+
+	/**
+	 * @see #lease(String, String, int)
+	 */
+	public Lease lease(String programFile, String programName) {
+		return this.lease(programFile, programName, 0);
+	}
+
+
+	/**
+	 * Lease a context for the given program and device. Waits for a
+	 * context being prewarmed for the same key rather than building
+	 * another one, and creates a new one if none is idle.
+	 *
+	 * @param programFile the program file, see {@link OpenCLContext}
+	 * @param programName the main kernel, see {@link OpenCLContext}
+	 * @param deviceIndex the device, see {@link OpenCLContext}
+	 * @return the lease, to be closed once the context isn't needed anymore
+	 */
+	public Lease lease(String programFile, String programName, int deviceIndex) {
+		if (this.shutdown) {
+			throw new IllegalStateException("OpenCLContextPool is shut down");
+		}
+		Key key = new Key(programFile, programName, deviceIndex);
+		Entry entry = this.getEntry(key);
+
+		OpenCLContext context = entry.idle.poll();
+		Future<?> pending = entry.pending;
+		if (context == null && pending != null) {
+			try {
+				pending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (CancellationException e) {
+				LOG.debug("Prewarming " + key + " was cancelled");
+			} catch (ExecutionException e) {
+				LOG.error("Prewarming " + key + " failed", e.getCause());
+			}
+			context = entry.idle.poll();
+		}
+		if (context == null) {
+			context = this.create(key, entry);
+		}
+		this.leased.add(context);
+		// The shutdown hook may have run meanwhile
+		if (this.shutdown && this.leased.remove(context)) {
+			closeQuietly(context);
+			throw new IllegalStateException("OpenCLContextPool is shut down");
+		}
+		return new Lease(entry, context);
+	}
+
+
+	private Entry getEntry(Key key) {
+		return this.entries.computeIfAbsent(key,
+				k -> new Entry(this.warmups.get(warmUpKey(k.programFile, k.programName))));
+	}
+
+
+	private static String warmUpKey(String programFile, String programName) {
+		return programFile + "#" + programName;
+	}
+
+
+	/**
+	 * Release all idle and leased contexts. Closing a lease afterwards
+	 * does nothing.
+	 */
+	private void shutdown() {
+		this.shutdown = true;
+		this.executor.shutdownNow();
+		for (Entry entry : this.entries.values()) {
+			Future<?> pending = entry.pending;
+			if (pending != null) {
+				pending.cancel(true);
+			}
+			OpenCLContext context;
+			while ((context = entry.idle.poll()) != null) {
+				closeQuietly(context);
+			}
+		}
+		for (OpenCLContext context : this.leased) {
+			if (this.leased.remove(context)) {
+				LOG.debug("Releasing a context still leased at shutdown");
+				closeQuietly(context);
+			}
+		}
+	}
+
+
+	private OpenCLContext create(Key key, Entry entry) {
+		long start = System.nanoTime();
+		OpenCLContext context = new OpenCLContext(key.programFile, key.programName, key.deviceIndex);
+		Consumer<OpenCLContext> warmup = entry.warmup;
+		if (warmup != null) {
+			try {
+				warmup.accept(context);
+			} catch (RuntimeException e) {
+				closeQuietly(context);
+				throw e;
+			}
+		}
+		LOG.debug(String.format("Created context for %s (%sms)", key, (System.nanoTime() - start) / 1_000_000));
+		return context;
+	}
+
+
+	private void release(Entry entry, OpenCLContext context) {
+		entry.idle.push(context);
+		// The shutdown hook may have drained the pool meanwhile
+		if (this.shutdown && entry.idle.remove(context)) {
+			closeQuietly(context);
+		}
+	}
+
+
+	private static void closeQuietly(OpenCLContext context) {
+		try {
+			context.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
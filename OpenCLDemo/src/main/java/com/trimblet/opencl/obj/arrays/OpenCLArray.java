@@ -27,12 +27,21 @@ public abstract class OpenCLArray implements AutoCloseable {
 	private final Pointer arrayPointer;
 
 	protected OpenCLArray(Pointer arrayPointer, int size, int bytesRequired, cl_context openCLContext) {
+		this(arrayPointer, size, bytesRequired, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, openCLContext);
+	}
+
+	/**
+	 * @param flags the {@link org.jocl.CL} memory flags used to create the buffer,
+	 * e.g. <code>CL_MEM_READ_WRITE | CL_MEM_COPY_HOST_PTR</code> for buffers
+	 * that kernels write into
+	 */
+	protected OpenCLArray(Pointer arrayPointer, int size, int bytesRequired, long flags, cl_context openCLContext) {
 		if (arrayPointer == null || openCLContext == null) {
 			throw new NullPointerException("OpenCLArray#() passed null parameter");
 		}
 		this.arrayPointer = arrayPointer;
 		this.size = size;
-		this.items = clCreateBuffer(openCLContext, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, bytesRequired, arrayPointer, null);
+		this.items = clCreateBuffer(openCLContext, flags, bytesRequired, arrayPointer, null);
 	}
 
 	public final cl_mem get() {
@@ -13,4 +13,8 @@ public final class OpenCLFloatArray extends OpenCLArray {
 	public OpenCLFloatArray(float[] array, int bytesRequired, cl_context openCLContext) {
 		super(Pointer.to(array), array.length, bytesRequired, openCLContext);
 	}
+
+	public OpenCLFloatArray(float[] array, int bytesRequired, long flags, cl_context openCLContext) {
+		super(Pointer.to(array), array.length, bytesRequired, flags, openCLContext);
+	}
 }
@@ -13,4 +13,8 @@ public final class OpenCLIntArray extends OpenCLArray {
 	public OpenCLIntArray(int[] array, int bytesRequired, cl_context openCLContext) {
 		super(Pointer.to(array), array.length, bytesRequired, openCLContext);
 	}
+
+	public OpenCLIntArray(int[] array, int bytesRequired, long flags, cl_context openCLContext) {
+		super(Pointer.to(array), array.length, bytesRequired, flags, openCLContext);
+	}
 }
@@ -0,0 +1,72 @@
+
+// Histogram kernel using local memory privatisation: every work group
+// counts into its own copy of the bins in local memory and only merges
+// the non-empty bins into the global result at the end.
+//
+// When the bins don't fit into local memory the host launches the kernel
+// once per sub-histogram, i.e. once per range of 'chunkBins' bins starting
+// at 'binOffset'. Elements falling outside that range are ignored.
+//
+// 'edges' holds numBins + 1 increasing bin edges, or just { min, max } when
+// 'uniform' is set. Bins are half open [edge, next edge), except for the
+// last bin, which also contains the maximum. Values outside the edges
+// (and NaNs) are not counted.
+
+int findBin(__global const float* edges, int numBins, int uniform, float element) {
+    if (uniform) {
+        float lo = edges[0];
+        float hi = edges[1];
+        int bin = (int) ((element - lo) * (numBins / (hi - lo)));
+        return min(bin, numBins - 1);
+    }
+
+    // Binary search for the last edge less or equal to the element
+    int lo = 0;
+    int hi = numBins;
+    while (hi - lo > 1) {
+        int mid = (lo + hi) / 2;
+        if (edges[mid] <= element) {
+            lo = mid;
+        } else {
+            hi = mid;
+        }
+    }
+    return lo;
+}
+
+__kernel void histogram(__global const float* buffer, __const int length,
+                        __global const float* edges, __const int numBins, __const int uniform,
+                        __const int binOffset, __const int chunkBins,
+                        __local int* scratch, __global int* result) {
+
+    int lid = get_local_id(0);
+    float lo = edges[0];
+    float hi = edges[uniform ? 1 : numBins];
+
+    // Clear the private histogram of this work group
+    for (int i = lid; i < chunkBins; i += get_local_size(0)) {
+        scratch[i] = 0;
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    // Loop sequentially over chunks of input vector
+    for (int globalIndex = get_global_id(0); globalIndex < length; globalIndex += get_global_size(0)) {
+        float element = buffer[globalIndex];
+        if (!(element >= lo && element <= hi)) {
+            continue;
+        }
+        int bin = findBin(edges, numBins, uniform, element) - binOffset;
+        if (bin >= 0 && bin < chunkBins) {
+            atomic_inc(&scratch[bin]);
+        }
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    // Merge the private histogram into the global one
+    for (int i = lid; i < chunkBins; i += get_local_size(0)) {
+        int count = scratch[i];
+        if (count != 0) {
+            atomic_add(&result[binOffset + i], count);
+        }
+    }
+}
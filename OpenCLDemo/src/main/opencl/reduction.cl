@@ -25,10 +25,234 @@ __kernel void reduce(__global float* buffer, __local float* scratch, __const int
             float mine = scratch[lid];
             scratch[lid] = mine + other;
         }
+        barrier(CLK_LOCAL_MEM_FENCE);
     }
-    barrier(CLK_LOCAL_MEM_FENCE);
     
     if (lid == 0) {
         result[get_group_id(0)] = scratch[0];
     }
 }
+
+
+// Two-input reductions. These follow the same two-stage scheme as 'reduce':
+// each work item accumulates a grid-stride slice of both inputs, the work
+// group combines the accumulators in local memory and writes one partial
+// result per group. The partials are then combined by running 'reduce'
+// (or 'combineCovariance') as a single work group.
+// The local work size must be a power of two.
+
+float groupSum(__local float* scratch, float accumulator) {
+    int lid = get_local_id(0);
+    scratch[lid] = accumulator;
+    barrier(CLK_LOCAL_MEM_FENCE);
+    for(int offset = get_local_size(0) / 2; offset > 0; offset = offset / 2) {
+        if (lid < offset) {
+            scratch[lid] += scratch[lid + offset];
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+    return scratch[0];
+}
+
+__kernel void reduceDot(__global const float* a, __global const float* b, __local float* scratch, __const int length, __global float* result) {
+
+    float accumulator = 0;
+    for (int globalIndex = get_global_id(0); globalIndex < length; globalIndex += get_global_size(0)) {
+        accumulator = fma(a[globalIndex], b[globalIndex], accumulator);
+    }
+
+    float sum = groupSum(scratch, accumulator);
+    if (get_local_id(0) == 0) {
+        result[get_group_id(0)] = sum;
+    }
+}
+
+__kernel void reduceSquaredDistance(__global const float* a, __global const float* b, __local float* scratch, __const int length, __global float* result) {
+
+    float accumulator = 0;
+    for (int globalIndex = get_global_id(0); globalIndex < length; globalIndex += get_global_size(0)) {
+        float difference = a[globalIndex] - b[globalIndex];
+        accumulator = fma(difference, difference, accumulator);
+    }
+
+    float sum = groupSum(scratch, accumulator);
+    if (get_local_id(0) == 0) {
+        result[get_group_id(0)] = sum;
+    }
+}
+
+// Batched variants: 'vectors' holds 'count' vectors of 'length' floats back
+// to back, and each work group reduces one of them against 'query'.
+
+__kernel void reduceDotBatched(__global const float* vectors, __global const float* query, __local float* scratch, __const int length, __global float* result) {
+
+    __global const float* vector = vectors + (size_t) get_group_id(0) * length;
+    float accumulator = 0;
+    for (int index = get_local_id(0); index < length; index += get_local_size(0)) {
+        accumulator = fma(vector[index], query[index], accumulator);
+    }
+
+    float sum = groupSum(scratch, accumulator);
+    if (get_local_id(0) == 0) {
+        result[get_group_id(0)] = sum;
+    }
+}
+
+__kernel void reduceSquaredDistanceBatched(__global const float* vectors, __global const float* query, __local float* scratch, __const int length, __global float* result) {
+
+    __global const float* vector = vectors + (size_t) get_group_id(0) * length;
+    float accumulator = 0;
+    for (int index = get_local_id(0); index < length; index += get_local_size(0)) {
+        float difference = vector[index] - query[index];
+        accumulator = fma(difference, difference, accumulator);
+    }
+
+    float sum = groupSum(scratch, accumulator);
+    if (get_local_id(0) == 0) {
+        result[get_group_id(0)] = sum;
+    }
+}
+
+// Segmented sum: 'offsets' holds the start of each of the segments packed
+// into 'buffer', followed by the end of the last one. Each work group sums
+// one segment, so many small reductions share a single launch.
+
+__kernel void reduceSegmented(__global const float* buffer, __global const int* offsets, __local float* scratch, __global float* result) {
+
+    int segment = get_group_id(0);
+    int end = offsets[segment + 1];
+    float accumulator = 0;
+    for (int index = offsets[segment] + get_local_id(0); index < end; index += get_local_size(0)) {
+        accumulator += buffer[index];
+    }
+
+    float sum = groupSum(scratch, accumulator);
+    if (get_local_id(0) == 0) {
+        result[segment] = sum;
+    }
+}
+
+// Single-pass covariance. Every work item keeps Welford's running moments
+// of its slice, which are merged pairwise with Chan et al.'s formula.
+// The counts are kept as integers so they stay exact past 2^24 elements.
+// In global memory the other moments are stored as MOMENTS consecutive
+// floats per entry, next to a separate array of counts; in local memory
+// they are stored as MOMENTS planes of get_local_size(0) floats.
+
+#define MOMENTS 5
+
+typedef struct {
+    uint count;
+    float meanA;
+    float meanB;
+    float comoment;
+    float m2A;
+    float m2B;
+} Moments;
+
+Moments mergeMoments(Moments x, Moments y) {
+    if (x.count == 0) {
+        return y;
+    }
+    if (y.count == 0) {
+        return x;
+    }
+    uint count = x.count + y.count;
+    float deltaA = y.meanA - x.meanA;
+    float deltaB = y.meanB - x.meanB;
+    float share = (float) y.count / (float) count;
+    float weight = (float) x.count * share;
+    Moments merged;
+    merged.count = count;
+    merged.meanA = x.meanA + deltaA * share;
+    merged.meanB = x.meanB + deltaB * share;
+    merged.comoment = x.comoment + y.comoment + deltaA * deltaB * weight;
+    merged.m2A = x.m2A + y.m2A + deltaA * deltaA * weight;
+    merged.m2B = x.m2B + y.m2B + deltaB * deltaB * weight;
+    return merged;
+}
+
+Moments loadMoments(__global const float* moments, __global const uint* counts, int index) {
+    __global const float* m = moments + index * MOMENTS;
+    Moments result = { counts[index], m[0], m[1], m[2], m[3], m[4] };
+    return result;
+}
+
+void storeLocalMoments(__local float* scratch, __local uint* scratchCounts, int index, Moments m) {
+    int stride = get_local_size(0);
+    scratchCounts[index] = m.count;
+    scratch[index] = m.meanA;
+    scratch[index + stride] = m.meanB;
+    scratch[index + 2 * stride] = m.comoment;
+    scratch[index + 3 * stride] = m.m2A;
+    scratch[index + 4 * stride] = m.m2B;
+}
+
+Moments loadLocalMoments(__local const float* scratch, __local const uint* scratchCounts, int index) {
+    int stride = get_local_size(0);
+    Moments result = {
+        scratchCounts[index], scratch[index], scratch[index + stride],
+        scratch[index + 2 * stride], scratch[index + 3 * stride], scratch[index + 4 * stride]
+    };
+    return result;
+}
+
+void groupMoments(__local float* scratch, __local uint* scratchCounts, Moments accumulator,
+                  __global float* result, __global uint* resultCounts) {
+    int lid = get_local_id(0);
+    storeLocalMoments(scratch, scratchCounts, lid, accumulator);
+    barrier(CLK_LOCAL_MEM_FENCE);
+    for(int offset = get_local_size(0) / 2; offset > 0; offset = offset / 2) {
+        if (lid < offset) {
+            Moments merged = mergeMoments(
+                    loadLocalMoments(scratch, scratchCounts, lid),
+                    loadLocalMoments(scratch, scratchCounts, lid + offset));
+            storeLocalMoments(scratch, scratchCounts, lid, merged);
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+
+    if (lid == 0) {
+        Moments m = loadLocalMoments(scratch, scratchCounts, 0);
+        __global float* out = result + get_group_id(0) * MOMENTS;
+        resultCounts[get_group_id(0)] = m.count;
+        out[0] = m.meanA;
+        out[1] = m.meanB;
+        out[2] = m.comoment;
+        out[3] = m.m2A;
+        out[4] = m.m2B;
+    }
+}
+
+__kernel void reduceCovariance(__global const float* a, __global const float* b,
+                               __local float* scratch, __local uint* scratchCounts, __const int length,
+                               __global float* result, __global uint* resultCounts) {
+
+    Moments accumulator = { 0, 0, 0, 0, 0, 0 };
+    for (int globalIndex = get_global_id(0); globalIndex < length; globalIndex += get_global_size(0)) {
+        float x = a[globalIndex];
+        float y = b[globalIndex];
+        accumulator.count += 1;
+        float deltaA = x - accumulator.meanA;
+        float deltaB = y - accumulator.meanB;
+        accumulator.meanA += deltaA / accumulator.count;
+        accumulator.meanB += deltaB / accumulator.count;
+        accumulator.comoment += deltaA * (y - accumulator.meanB);
+        accumulator.m2A += deltaA * (x - accumulator.meanA);
+        accumulator.m2B += deltaB * (y - accumulator.meanB);
+    }
+
+    groupMoments(scratch, scratchCounts, accumulator, result, resultCounts);
+}
+
+__kernel void combineCovariance(__global const float* moments, __global const uint* counts,
+                                __local float* scratch, __local uint* scratchCounts, __const int length,
+                                __global float* result, __global uint* resultCounts) {
+
+    Moments accumulator = { 0, 0, 0, 0, 0, 0 };
+    for (int globalIndex = get_global_id(0); globalIndex < length; globalIndex += get_global_size(0)) {
+        accumulator = mergeMoments(accumulator, loadMoments(moments, counts, globalIndex));
+    }
+
+    groupMoments(scratch, scratchCounts, accumulator, result, resultCounts);
+}
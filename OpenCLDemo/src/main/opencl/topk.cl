@@ -0,0 +1,81 @@
+
+// Top-k selection. Each work group streams over its chunk of the input
+// keeping a tile of 'tileSize' (value, index) pairs in local memory: the
+// first k slots hold the best candidates so far, the rest are refilled from
+// the input and the whole tile is bitonic sorted in descending order.
+// Every group then writes its k best pairs; running the kernel again as a
+// single work group over these candidates leaves the overall top k.
+//
+// 'tileSize' must be a power of two, at least 2 * k and 2 * get_local_size(0).
+// NaNs are skipped. Empty slots hold -INFINITY with index -1, and ties are
+// broken by the lower index, so empty slots sort after every real element.
+
+bool isBefore(float value, int index, float otherValue, int otherIndex) {
+    return value > otherValue || (value == otherValue && (uint) index < (uint) otherIndex);
+}
+
+void bitonicSort(__local float* values, __local int* indices, int tileSize) {
+    for (int size = 2; size <= tileSize; size <<= 1) {
+        for (int stride = size / 2; stride > 0; stride >>= 1) {
+            for (int pair = get_local_id(0); pair < tileSize / 2; pair += get_local_size(0)) {
+                int pos = 2 * pair - (pair & (stride - 1));
+                int partner = pos + stride;
+                bool descending = (pos & size) == 0;
+
+                float value = values[pos];
+                float otherValue = values[partner];
+                int index = indices[pos];
+                int otherIndex = indices[partner];
+                bool swap = descending
+                        ? isBefore(otherValue, otherIndex, value, index)
+                        : isBefore(value, index, otherValue, otherIndex);
+                if (swap) {
+                    values[pos] = otherValue;
+                    values[partner] = value;
+                    indices[pos] = otherIndex;
+                    indices[partner] = index;
+                }
+            }
+            barrier(CLK_LOCAL_MEM_FENCE);
+        }
+    }
+}
+
+__kernel void topK(__global const float* values, __global const int* indices, __const int useIndices,
+                   __const int length, __const int k, __const int chunk, __const int tileSize,
+                   __local float* tileValues, __local int* tileIndices,
+                   __global float* resultValues, __global int* resultIndices) {
+
+    int lid = get_local_id(0);
+    int start = get_group_id(0) * chunk;
+    int end = min(length, start + chunk);
+
+    // No candidates yet
+    for (int i = lid; i < k; i += get_local_size(0)) {
+        tileValues[i] = -INFINITY;
+        tileIndices[i] = -1;
+    }
+
+    // Refill the slots behind the candidates and sort the tile
+    for (int base = start; base < end; base += tileSize - k) {
+        for (int i = k + lid; i < tileSize; i += get_local_size(0)) {
+            int globalIndex = base + i - k;
+            float value = -INFINITY;
+            int index = -1;
+            if (globalIndex < end && !isnan(values[globalIndex])) {
+                value = values[globalIndex];
+                index = useIndices ? indices[globalIndex] : globalIndex;
+            }
+            tileValues[i] = value;
+            tileIndices[i] = index;
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+        bitonicSort(tileValues, tileIndices, tileSize);
+    }
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    for (int i = lid; i < k; i += get_local_size(0)) {
+        resultValues[get_group_id(0) * k + i] = tileValues[i];
+        resultIndices[get_group_id(0) * k + i] = tileIndices[i];
+    }
+}
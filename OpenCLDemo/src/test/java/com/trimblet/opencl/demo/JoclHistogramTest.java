@@ -0,0 +1,80 @@
+package com.trimblet.opencl.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
+
+public final class JoclHistogramTest {
+
+	private static final float[] INPUT = {0.0f, 0.5f, 1.0f, 2.5f, 3.0f, 3.5f, 4.0f, -1.0f, 5.0f, Float.NaN};
+
+	@Test
+	public final void testUniformHistogram() {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			int[] result = JoclHistogram.histogram(context, INPUT, 0.0f, 4.0f, 4);
+			assertArrayEquals(new int[]{2, 1, 1, 3}, result);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testEdgesHistogram() {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			int[] result = JoclHistogram.histogram(context, INPUT, new float[]{-2.0f, 1.0f, 3.0f, 10.0f});
+			assertArrayEquals(new int[]{3, 2, 4}, result);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testManyBinsHistogram() {
+		// More bins than fit into local memory on common devices
+		int numBins = 1 << 16;
+		float[] input = new float[numBins];
+		int[] expected = new int[numBins];
+		for (int i = 0; i < numBins; i++) {
+			input[i] = i;
+			expected[i] = 1;
+		}
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			int[] result = JoclHistogram.histogram(context, input, 0.0f, numBins, numBins);
+			assertArrayEquals(expected, result);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testRepeatedManyBinsHistogram() throws Exception {
+		// The local memory set by the first call must not shrink the passes of the second
+		int numBins = 1 << 16;
+		float[] input = new float[numBins];
+		int[] expected = new int[numBins];
+		for (int i = 0; i < numBins; i++) {
+			input[i] = i;
+			expected[i] = 1;
+		}
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.HISTOGRAM_PROGRAM_FILE, Constants.HISTOGRAM_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			int maxLocalBins = JoclHistogram.getMaxLocalBins(context);
+			assertTrue(maxLocalBins > 1);
+
+			assertArrayEquals(expected, JoclHistogram.histogram(context, input, 0.0f, numBins, numBins));
+			assertEquals(maxLocalBins, JoclHistogram.getMaxLocalBins(context));
+			assertArrayEquals(expected, JoclHistogram.histogram(context, input, 0.0f, numBins, numBins));
+			assertEquals(maxLocalBins, JoclHistogram.getMaxLocalBins(context));
+		}
+	}
+}
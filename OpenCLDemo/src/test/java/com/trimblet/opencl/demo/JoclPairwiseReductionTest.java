@@ -0,0 +1,153 @@
+package com.trimblet.opencl.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
+
+public final class JoclPairwiseReductionTest {
+
+	private static final Float CONFIDENCE_INTERVAL = 0.0001f;
+	/** Relative tolerance for float sums of many elements */
+	private static final double RELATIVE_CONFIDENCE_INTERVAL = 0.001;
+
+	private static final float[] A = {1.0f, 2.0f, 3.0f, 4.0f, 5.0f};
+	private static final float[] B = {2.0f, 4.0f, 5.0f, 4.0f, 5.0f};
+
+	@Test
+	public final void testDot() {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			assertEquals(66.0f, JoclPairwiseReduction.dot(context, A, B), CONFIDENCE_INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testSquaredDistance() {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			assertEquals(9.0f, JoclPairwiseReduction.squaredDistance(context, A, B), CONFIDENCE_INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testCovariance() {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			JoclPairwiseReduction.Covariance result = JoclPairwiseReduction.covariance(context, A, B);
+			assertEquals(5, result.getCount());
+			assertEquals(3.0f, result.getMeanA(), CONFIDENCE_INTERVAL);
+			assertEquals(4.0f, result.getMeanB(), CONFIDENCE_INTERVAL);
+			assertEquals(1.2f, result.getCovariance(), CONFIDENCE_INTERVAL);
+			assertEquals(1.5f, result.getSampleCovariance(), CONFIDENCE_INTERVAL);
+			assertEquals(0.7746f, result.getCorrelation(), CONFIDENCE_INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testBatched() {
+		float[] vectors = {1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f};
+		float[] query = {3.0f, 4.0f};
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			assertArrayEquals(new float[]{3.0f, 4.0f, 7.0f},
+					JoclPairwiseReduction.dotBatched(context, vectors, query), CONFIDENCE_INTERVAL);
+			assertArrayEquals(new float[]{20.0f, 18.0f, 13.0f},
+					JoclPairwiseReduction.squaredDistanceBatched(context, vectors, query), CONFIDENCE_INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public final void testEmpty() throws Exception {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			assertEquals(0.0f, JoclPairwiseReduction.dot(context, new float[0], new float[0]), 0.0f);
+			assertEquals(0.0f, JoclPairwiseReduction.squaredDistance(context, new float[0], new float[0]), 0.0f);
+			assertEquals(0, JoclPairwiseReduction.covariance(context, new float[0], new float[0]).getCount());
+		}
+	}
+
+	/**
+	 * The sums must not depend on the main kernel the context was built with.
+	 */
+	@Test
+	public final void testOtherMainKernel() throws Exception {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.COVARIANCE_KERNEL_NAME)) {
+			OpenCLContext context = lease.get();
+			assertEquals(66.0f, JoclPairwiseReduction.dot(context, A, B), CONFIDENCE_INTERVAL);
+			assertEquals(9.0f, JoclPairwiseReduction.squaredDistance(context, A, B), CONFIDENCE_INTERVAL);
+		}
+	}
+
+	/**
+	 * More elements than 64 work groups of 256 items, so partial results
+	 * of several work groups are merged. Compared against double precision.
+	 */
+	@Test
+	public final void testManyWorkGroups() {
+		int n = 256 * 64 * 4 + 17;
+		Random random = new Random(n);
+		float[] a = new float[n];
+		float[] b = new float[n];
+		for (int i = 0; i < n; i++) {
+			a[i] = 2.0f * random.nextFloat() - 1.0f;
+			b[i] = 0.5f * a[i] + random.nextFloat();
+		}
+
+		double dot = 0.0;
+		double squaredDistance = 0.0;
+		double sumA = 0.0;
+		double sumB = 0.0;
+		for (int i = 0; i < n; i++) {
+			dot += (double) a[i] * b[i];
+			squaredDistance += ((double) a[i] - b[i]) * ((double) a[i] - b[i]);
+			sumA += a[i];
+			sumB += b[i];
+		}
+		double meanA = sumA / n;
+		double meanB = sumB / n;
+		double comoment = 0.0;
+		double m2A = 0.0;
+		double m2B = 0.0;
+		for (int i = 0; i < n; i++) {
+			comoment += (a[i] - meanA) * (b[i] - meanB);
+			m2A += (a[i] - meanA) * (a[i] - meanA);
+			m2B += (b[i] - meanB) * (b[i] - meanB);
+		}
+
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			assertRelativeEquals(dot, JoclPairwiseReduction.dot(context, a, b));
+			assertRelativeEquals(squaredDistance, JoclPairwiseReduction.squaredDistance(context, a, b));
+
+			JoclPairwiseReduction.Covariance result = JoclPairwiseReduction.covariance(context, a, b);
+			assertEquals(n, result.getCount());
+			assertEquals(meanA, result.getMeanA(), CONFIDENCE_INTERVAL);
+			assertEquals(meanB, result.getMeanB(), CONFIDENCE_INTERVAL);
+			assertRelativeEquals(comoment / n, result.getCovariance());
+			assertRelativeEquals(comoment / (n - 1), result.getSampleCovariance());
+			assertRelativeEquals(comoment / Math.sqrt(m2A * m2B), result.getCorrelation());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void assertRelativeEquals(double expected, double actual) {
+		assertEquals(expected, actual, Math.abs(expected) * RELATIVE_CONFIDENCE_INTERVAL);
+	}
+}
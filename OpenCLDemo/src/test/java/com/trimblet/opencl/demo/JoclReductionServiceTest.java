@@ -0,0 +1,60 @@
+package com.trimblet.opencl.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
+import com.trimblet.opencl.utilities.Utilities;
+
+public final class JoclReductionServiceTest {
+
+	private static final Float CONFIDENCE_INTERVAL = 0.0001f;
+
+	@Test
+	public final void testReduction() throws Exception {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME);
+				JoclReductionService service = new JoclReductionService(lease.get(), 16, 1, TimeUnit.MILLISECONDS)) {
+			assertEquals(15.0f, service.reduce(Utilities.newTestArray(5)), CONFIDENCE_INTERVAL);
+			assertEquals(0.0f, service.reduce(new float[0]), CONFIDENCE_INTERVAL);
+		}
+	}
+
+	@Test
+	public final void testConcurrentReductions() throws Exception {
+		int requests = 1_000;
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME);
+				JoclReductionService service = new JoclReductionService(lease.get(), 64, 1, TimeUnit.MILLISECONDS)) {
+
+			List<CompletableFuture<Float>> results = new ArrayList<>();
+			for (int i = 0; i < requests; i++) {
+				int n = 1 + i % 100;
+				results.add(CompletableFuture.supplyAsync(() -> Utilities.newTestArray(n))
+						.thenCompose(service::submit));
+			}
+			// Fails the test if any batch failed
+			CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+			assertEquals(0, service.getFailedRequestCount());
+			assertEquals(requests, service.getRequestCount());
+			for (int i = 0; i < requests; i++) {
+				int n = 1 + i % 100;
+				assertEquals(n * (n + 1) / 2.0f, results.get(i).get(), CONFIDENCE_INTERVAL);
+			}
+
+			assertTrue(service.getLatencyPercentileNanos(0.99) > 0);
+			assertTrue(service.getLatencyPercentileNanos(0.99) <= service.getMaxLatencyNanos());
+			assertTrue(service.getLatencyPercentileNanos(0.5) <= service.getLatencyPercentileNanos(0.99));
+			assertEquals(0, service.getQueueDepth());
+			assertTrue(service.getLargestBatchSize() <= 64);
+			assertTrue(service.getBatchCount() <= requests);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.trimblet.opencl.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
+
+public final class JoclTopKTest {
+
+	private static final Float CONFIDENCE_INTERVAL = 0.0f;
+
+	@Test
+	public final void testTopK() throws Exception {
+		assertTopK(1_000_000, 10);
+	}
+
+	@Test
+	public final void testLargeK() throws Exception {
+		assertTopK(100_000, 500);
+	}
+
+	@Test
+	public final void testSmallInput() {
+		float[] input = {3.0f, Float.NaN, -1.0f, 7.0f};
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.TOPK_PROGRAM_FILE, Constants.TOPK_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			JoclTopK.TopK result = JoclTopK.topK(context, input, 10);
+			assertArrayEquals(new float[]{7.0f, 3.0f, -1.0f}, result.getValues(), CONFIDENCE_INTERVAL);
+			assertArrayEquals(new int[]{3, 0, 2}, result.getIndices());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * A tile filling local memory must not shrink the memory seen by the
+	 * next call on the same context
+	 */
+	@Test
+	public final void testRepeatedLargestK() throws Exception {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.TOPK_PROGRAM_FILE, Constants.TOPK_PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
+			long available = context.getAvailableLocalMemSize(context.getKernel());
+			int maxTileSize = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, available / (Float.BYTES + Integer.BYTES)));
+			int k = maxTileSize / 2;
+			float[] input = newRandomArray(200_000);
+			assertTopK(context, input, k);
+			assertTopK(context, input, k);
+		}
+	}
+
+	private static void assertTopK(int n, int k) throws Exception {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.TOPK_PROGRAM_FILE, Constants.TOPK_PROGRAM_NAME)) {
+			assertTopK(lease.get(), newRandomArray(n), k);
+		}
+	}
+
+	/**
+	 * Compare against the k last elements of the sorted input
+	 */
+	private static void assertTopK(OpenCLContext context, float[] input, int k) {
+		int n = input.length;
+		float[] sorted = input.clone();
+		Arrays.sort(sorted);
+
+		JoclTopK.TopK result = JoclTopK.topK(context, input, k);
+		assertEquals(k, result.getValues().length);
+		for (int i = 0; i < k; i++) {
+			assertEquals(sorted[n - 1 - i], result.getValues()[i], CONFIDENCE_INTERVAL);
+			assertEquals(result.getValues()[i], input[result.getIndices()[i]], CONFIDENCE_INTERVAL);
+		}
+	}
+
+	private static float[] newRandomArray(int n) {
+		Random random = new Random(n);
+		float[] input = new float[n];
+		for (int i = 0; i < n; i++) {
+			input[i] = random.nextFloat();
+		}
+		return input;
+	}
+}
@@ -10,6 +10,8 @@ import org.junit.Test;
 
 import com.trimblet.opencl.constants.Constants;
 import com.trimblet.opencl.obj.OpenCLContext;
+import com.trimblet.opencl.obj.OpenCLContextPool;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
 import com.trimblet.opencl.utilities.Utilities;
 
 public abstract class ReductionTest {
@@ -20,7 +22,8 @@ public abstract class ReductionTest {
 
 	@Test
 	public final void testReduction() {
-		try (OpenCLContext context = new OpenCLContext(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+		try (Lease lease = OpenCLContextPool.getInstance().lease(Constants.PROGRAM_FILE, Constants.PROGRAM_NAME)) {
+			OpenCLContext context = lease.get();
 			float result = this.getFunction().apply(context, Utilities.newTestArray(5));
 			assertEquals(15.0f, result, CONFIDENCE_INTERVAL);
 		} catch (Exception e) {
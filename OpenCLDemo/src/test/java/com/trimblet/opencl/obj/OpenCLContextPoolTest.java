@@ -0,0 +1,79 @@
+package com.trimblet.opencl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.trimblet.opencl.constants.Constants;
+import com.trimblet.opencl.obj.OpenCLContextPool.Lease;
+
+/**
+ * Uses the reduction program with main kernels no other test leases,
+ * so every key starts out without idle contexts.
+ */
+public final class OpenCLContextPoolTest {
+
+	@Test
+	public final void testLeaseIsReused() throws Exception {
+		OpenCLContextPool pool = OpenCLContextPool.getInstance();
+		OpenCLContext first;
+		try (Lease lease = pool.lease(Constants.PROGRAM_FILE, Constants.SQUARED_DISTANCE_KERNEL_NAME)) {
+			first = lease.get();
+		}
+		try (Lease lease = pool.lease(Constants.PROGRAM_FILE, Constants.SQUARED_DISTANCE_KERNEL_NAME)) {
+			assertSame(first, lease.get());
+			try (Lease concurrent = pool.lease(Constants.PROGRAM_FILE, Constants.SQUARED_DISTANCE_KERNEL_NAME)) {
+				assertNotSame(first, concurrent.get());
+			}
+		}
+	}
+
+	@Test
+	public final void testPrewarm() throws Exception {
+		OpenCLContextPool pool = OpenCLContextPool.getInstance();
+		AtomicInteger warmups = new AtomicInteger();
+		AtomicReference<OpenCLContext> warmed = new AtomicReference<>();
+		pool.prewarm(Constants.PROGRAM_FILE, Constants.DOT_KERNEL_NAME, context -> {
+			warmups.incrementAndGet();
+			warmed.set(context);
+		}).get();
+		assertEquals(1, warmups.get());
+
+		// The prewarmed context is handed out without building another one
+		try (Lease lease = pool.lease(Constants.PROGRAM_FILE, Constants.DOT_KERNEL_NAME)) {
+			assertSame(warmed.get(), lease.get());
+			assertEquals(1, warmups.get());
+		}
+	}
+
+	@Test
+	public final void testKeysBuildInParallel() throws Exception {
+		OpenCLContextPool pool = OpenCLContextPool.getInstance();
+		CountDownLatch blocked = new CountDownLatch(1);
+		Future<?> slow = pool.prewarm(Constants.PROGRAM_FILE, Constants.DOT_BATCHED_KERNEL_NAME, context -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			// Doesn't queue behind the stuck build of the other key
+			pool.prewarm(Constants.PROGRAM_FILE, Constants.SQUARED_DISTANCE_BATCHED_KERNEL_NAME, context -> {})
+					.get(1, TimeUnit.MINUTES);
+			assertFalse(slow.isDone());
+		} finally {
+			blocked.countDown();
+		}
+		slow.get();
+	}
+}